@@ -0,0 +1,32 @@
+package com.peck.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * The main class of benchmarks.jar. It takes the options of JMH's own main (a benchmark regex, -p name=fib,
+ * -rf json, ...) and always adds the GC profiler, so allocation per operation is part of every result.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if(cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+
+        Runner runner = new Runner(new OptionsBuilder()
+            .parent(cmd)
+            .addProfiler(GCProfiler.class)
+            .build());
+        if(cmd.shouldList()) runner.list();
+        else runner.run();
+    }
+}
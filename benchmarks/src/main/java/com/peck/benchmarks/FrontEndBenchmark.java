@@ -0,0 +1,46 @@
+package com.peck.benchmarks;
+
+import com.peck.Parser;
+import com.peck.Resolver;
+import com.peck.Scanner;
+import com.peck.Stmt;
+import com.peck.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many times a second the scanner, parser and resolver get through a workload.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FrontEndBenchmark {
+
+    @Benchmark
+    public List<Token> scan(Workload workload) {
+        return new Scanner(workload.source, workload.errors).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse(Workload workload) {
+        return new Parser(workload.tokens, workload.errors).parse();
+    }
+
+    // resolving a tree again sets the same depths, so the parsed one can be used every time
+    @Benchmark
+    public Resolver resolve(Workload workload) {
+        Resolver resolver = new Resolver(workload.errors);
+        resolver.resolve(workload.stmts);
+        return resolver;
+    }
+}
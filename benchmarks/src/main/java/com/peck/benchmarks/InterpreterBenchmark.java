@@ -0,0 +1,32 @@
+package com.peck.benchmarks;
+
+import com.peck.Interpreter;
+import com.peck.OutputSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many times a second a workload runs, in a fresh interpreter every time, as a script run does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class InterpreterBenchmark {
+
+    @Benchmark
+    public Interpreter interpret(Workload workload) {
+        Interpreter interpreter = new Interpreter(workload.errors, new OutputSink(Writer.nullWriter(), OutputSink.DEFAULT_BUFFER_SIZE));
+        interpreter.interpret(workload.stmts);
+        return interpreter;
+    }
+}
@@ -0,0 +1,53 @@
+package com.peck.benchmarks;
+
+import com.peck.ErrorReporter;
+import com.peck.Parser;
+import com.peck.Resolver;
+import com.peck.Scanner;
+import com.peck.Stmt;
+import com.peck.Token;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * One script of the corpus in src/main/resources/workloads, with what every phase makes of it.
+ * A benchmark measures one phase, the ones before it are done here, once per trial.
+ */
+@State(Scope.Thread)
+public class Workload {
+
+    @Param({"fib", "binary-trees", "strings", "zoo", "instantiation", "equality"})
+    public String name;
+
+    public String source;
+    public List<Token> tokens;
+    public List<Stmt> stmts;
+    // compile errors fail the setup, runtime errors are printed to nowhere
+    public ErrorReporter errors;
+
+    @Setup
+    public void load() {
+        try(InputStream in = Workload.class.getResourceAsStream("/workloads/" + name + ".lox")) {
+            if(in == null) throw new IllegalStateException("No workload " + name + ".");
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        errors = new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+        tokens = new Scanner(source, errors).scanTokens();
+        stmts = new Parser(tokens, errors).parse();
+        new Resolver(errors).resolve(stmts);
+        if(errors.hadError()) throw new IllegalStateException("The workload " + name + " doesn't compile.");
+    }
+}
@@ -0,0 +1,208 @@
+package com.peck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the passes which turn a resolved ast into an equivalent one.
+ * By default every node is kept as it is, a node is only copied when one of its children
+ * be replaced, so the untouched subtrees keep their identity (and what the Resolver knows about them).
+ */
+public abstract class AstRewriter implements Expr.Visitor<Expr>, Stmt.Visitor {
+
+    // Stmt.Visitor can't return a value, the statement produced by the last visit is left here
+    private Stmt rewritten;
+
+    public List<Stmt> rewrite(List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>(stmts.size());
+        boolean changed = false;
+        for(Stmt stmt : stmts) {
+            Stmt r = rewrite(stmt);
+            changed |= r != stmt;
+            result.add(r);
+        }
+        return changed ? result : stmts;
+    }
+
+    protected Stmt rewrite(Stmt stmt) {
+        stmt.accept(this);
+        // a copy stands where the original was written
+        if(rewritten != null && rewritten != stmt && rewritten.line == 0) rewritten.line = stmt.line;
+        return rewritten;
+    }
+
+    protected Expr rewrite(Expr expr) {
+        return expr.accept(this);
+    }
+
+    protected void replaceWith(Stmt stmt) {
+        rewritten = stmt;
+    }
+
+    // the size of a side-effect-free expression, passes use it to decide whether a change pays off
+    static int nodeCount(Expr expr) {
+        if(expr instanceof Expr.Grouping g) return 1 + nodeCount(g.expression);
+        if(expr instanceof Expr.Unary u) return 1 + nodeCount(u.right);
+        if(expr instanceof Expr.Binary b) return 1 + nodeCount(b.left) + nodeCount(b.right);
+        if(expr instanceof Expr.Logical l) return 1 + nodeCount(l.left) + nodeCount(l.right);
+        if(expr instanceof Expr.Get g) return 1 + nodeCount(g.obj);
+        return 1;
+    }
+
+    private List<Expr> rewriteExprs(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>(exprs.size());
+        boolean changed = false;
+        for(Expr expr : exprs) {
+            Expr r = rewrite(expr);
+            changed |= r != expr;
+            result.add(r);
+        }
+        return changed ? result : exprs;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        if(right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = rewrite(expr.expression);
+        if(inner == expr.expression) return expr;
+        return new Expr.Grouping(inner);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if(value == expr.value) return expr;
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> args = rewriteExprs(expr.args);
+        if(callee == expr.callee && args == expr.args) return expr;
+        return new Expr.Call(callee, expr.paren, args);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr obj = rewrite(expr.obj);
+        if(obj == expr.obj) return expr;
+        return new Expr.Get(obj, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr obj = rewrite(expr.obj);
+        Expr value = rewrite(expr.value);
+        if(obj == expr.obj && value == expr.value) return expr;
+        return new Expr.Set(obj, expr.name, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public void visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expr = rewrite(stmt.expr);
+        replaceWith(expr == stmt.expr ? stmt : new Stmt.Expression(expr));
+    }
+
+    @Override
+    public void visitPrintStmt(Stmt.Print stmt) {
+        Expr expr = rewrite(stmt.expr);
+        replaceWith(expr == stmt.expr ? stmt : new Stmt.Print(expr));
+    }
+
+    @Override
+    public void visitVarDeclaration(Stmt.VarDeclaration stmt) {
+        Expr initializer = stmt.initializer == null ? null : rewrite(stmt.initializer);
+        replaceWith(initializer == stmt.initializer ? stmt : new Stmt.VarDeclaration(stmt.name, initializer));
+    }
+
+    @Override
+    public void visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> stmts = rewrite(stmt.stmts);
+        replaceWith(stmts == stmt.stmts ? stmt : new Stmt.Block(stmts));
+    }
+
+    @Override
+    public void visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.conditionExpr);
+        Stmt thenStmt = rewrite(stmt.thenStmt);
+        Stmt elseStmt = stmt.elseStmt == null ? null : rewrite(stmt.elseStmt);
+        if(condition == stmt.conditionExpr && thenStmt == stmt.thenStmt && elseStmt == stmt.elseStmt) {
+            replaceWith(stmt);
+        } else {
+            replaceWith(new Stmt.If(condition, thenStmt, elseStmt));
+        }
+    }
+
+    @Override
+    public void visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.conditionExpr);
+        Stmt body = rewrite(stmt.body);
+        if(condition == stmt.conditionExpr && body == stmt.body) {
+            replaceWith(stmt);
+        } else {
+            replaceWith(new Stmt.While(condition, body));
+        }
+    }
+
+    @Override
+    public void visitFunctionStmt(Stmt.Function stmt) {
+        Stmt.Block body = (Stmt.Block) rewrite(stmt.body);
+        replaceWith(body == stmt.body ? stmt : new Stmt.Function(stmt.name, stmt.params, body));
+    }
+
+    @Override
+    public void visitReturnStmt(Stmt.Return stmt) {
+        Expr value = stmt.value == null ? null : rewrite(stmt.value);
+        replaceWith(value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value));
+    }
+
+    @Override
+    public void visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for(Stmt.Function method : stmt.methods) {
+            Stmt.Function r = (Stmt.Function) rewrite(method);
+            changed |= r != method;
+            methods.add(r);
+        }
+        replaceWith(changed ? new Stmt.Class(stmt.name, methods) : stmt);
+    }
+}
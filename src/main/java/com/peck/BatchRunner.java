@@ -0,0 +1,142 @@
+package com.peck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Runs many scripts in one JVM, several at a time on a bounded pool.
+ *
+ * Every script gets its own context, so nothing is shared between them but the compiled code of the JVM.
+ * The output of a script is captured and printed as one piece, in the order the scripts were given,
+ * under a line with its exit status: 0, or 65 and 70 as a single run would exit with.
+ */
+public class BatchRunner {
+
+    private final LoxEngine engine;
+    private final int jobs;
+    private final long heapStackBudget;
+    private int outputBuffer = OutputSink.DEFAULT_BUFFER_SIZE;
+    // shared by the contexts of all scripts, or null
+    private Metrics metrics;
+
+    private record Result(Path path, int status, String output, long nanos) {}
+
+    public BatchRunner(LoxEngine engine, int jobs, long heapStackBudget) {
+        this.engine = engine;
+        this.jobs = jobs;
+        this.heapStackBudget = heapStackBudget;
+    }
+
+    /**
+     * how many characters of output every script keeps before they are written, see LoxContext.setOutputBuffer.
+     */
+    public void setOutputBuffer(int chars) {
+        this.outputBuffer = chars;
+    }
+
+    /**
+     * counts what every script run from now on does in metrics.
+     */
+    public void collectMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * a path is a script, or a directory whose .lox files are all run.
+     * returns the highest exit status of the scripts.
+     */
+    public int run(List<String> paths, PrintStream out) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for(String path : paths) {
+            collect(Path.of(path), scripts);
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<Future<Result>> results = new ArrayList<>();
+        for(Path script : scripts) {
+            results.add(pool.submit(() -> runScript(script)));
+        }
+
+        int failed = 0;
+        int status = 0;
+        long busy = 0;
+        try {
+            for(Future<Result> future : results) {
+                Result result = future.get();
+                out.println("== " + result.path + " (exit " + result.status + ", " + millis(result.nanos) + " ms)");
+                out.print(result.output);
+                if(result.status != 0) failed++;
+                status = Math.max(status, result.status);
+                busy += result.nanos;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running the batch.", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long wall = System.nanoTime() - start;
+        out.println("== " + scripts.size() + " scripts, " + (scripts.size() - failed) + " passed, "
+            + failed + " failed, " + millis(wall) + " ms wall, " + millis(busy) + " ms in scripts, "
+            + jobs + " jobs");
+        return status;
+    }
+
+    private static void collect(Path path, List<Path> scripts) throws IOException {
+        if(!Files.isDirectory(path)) {
+            scripts.add(path);
+            return;
+        }
+        try(Stream<Path> files = Files.list(path)) {
+            files.filter(f -> f.toString().endsWith(".lox") && Files.isRegularFile(f))
+                .sorted()
+                .forEach(scripts::add);
+        }
+    }
+
+    private Result runScript(Path script) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, Charset.defaultCharset());
+
+        int status;
+        try {
+            String source = Files.readString(script, Charset.defaultCharset());
+            LoxContext context = engine.newContext(out, new ErrorReporter(out));
+            if(heapStackBudget > 0) context.useHeapStack(heapStackBudget);
+            context.setOutputBuffer(outputBuffer);
+            if(metrics != null) context.collectMetrics(metrics);
+            context.eval(source);
+
+            status = context.errors().exitStatus();
+        } catch (IOException e) {
+            out.println("Can't read " + script + ".");
+            status = 66;
+        } catch (StackOverflowError e) {
+            out.println("Stack overflow.");
+            status = 70;
+        }
+
+        out.flush();
+        return new Result(script, status, buffer.toString(Charset.defaultCharset()), System.nanoTime() - start);
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,179 @@
+package com.peck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs one script many times to see how long it takes: some warmup runs, so the JVM has compiled the
+ * interpreter, then the measured ones. Every run is a fresh context, the source is compiled again
+ * and what it prints is dropped.
+ *
+ * Every measured run records its wall time and the bytes allocated by the thread running it. Tasks and
+ * parallel workers allocate on threads of their own, that isn't counted. The collections of every
+ * collector during the measured runs are added up.
+ */
+public class BenchRunner {
+
+    private final LoxEngine engine;
+    private final long heapStackBudget;
+    private final int warmup;
+    private final int runs;
+    // what's printed is dropped, but a run still pays for buffering it
+    private int outputBuffer = OutputSink.DEFAULT_BUFFER_SIZE;
+
+    // what the measured runs came to, the samples are sorted
+    private record Report(String script, int warmup, long[] nanos, long[] allocated, long gcCount, long gcMillis) {}
+
+    public BenchRunner(LoxEngine engine, long heapStackBudget, int warmup, int runs) {
+        this.engine = engine;
+        this.heapStackBudget = heapStackBudget;
+        this.warmup = warmup;
+        this.runs = runs;
+    }
+
+    /**
+     * how many characters of output every run keeps before they are written, see LoxContext.setOutputBuffer.
+     */
+    public void setOutputBuffer(int chars) {
+        this.outputBuffer = chars;
+    }
+
+    /**
+     * prints the report, as text or as one JSON object. When a run fails its errors are printed instead,
+     * and the status it exited with is returned.
+     */
+    public int run(String script, String source, boolean json, PrintStream out) {
+        for(int i = 0; i < warmup; i++) {
+            int status = runOnce(source, out);
+            if(status != 0) return status;
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean countAllocations = threads instanceof com.sun.management.ThreadMXBean sun
+            && sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled();
+
+        long[] nanos = new long[runs];
+        long[] allocated = new long[runs];
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        for(int i = 0; i < runs; i++) {
+            long bytes = countAllocations ? allocatedBytes(threads) : 0;
+            long start = System.nanoTime();
+            int status = runOnce(source, out);
+            nanos[i] = System.nanoTime() - start;
+            if(countAllocations) allocated[i] = allocatedBytes(threads) - bytes;
+            if(status != 0) return status;
+        }
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        Arrays.sort(nanos);
+        Arrays.sort(allocated);
+        Report report = new Report(script, warmup, nanos, allocated, gcCount, gcMillis);
+        out.println(json ? toJson(report) : toText(report));
+        return 0;
+    }
+
+    private int runOnce(String source, PrintStream out) {
+        ByteArrayOutputStream errorText = new ByteArrayOutputStream();
+        PrintStream errorOut = new PrintStream(errorText, false, Charset.defaultCharset());
+        LoxContext context = engine.newContext(Writer.nullWriter(), new ErrorReporter(errorOut));
+        if(heapStackBudget > 0) context.useHeapStack(heapStackBudget);
+        context.setOutputBuffer(outputBuffer);
+
+        int status;
+        try {
+            context.eval(source);
+            status = context.errors().exitStatus();
+        } catch (StackOverflowError e) {
+            errorOut.println("Stack overflow.");
+            status = 70;
+        }
+
+        if(status != 0) {
+            errorOut.flush();
+            out.print(errorText.toString(Charset.defaultCharset()));
+        }
+        return status;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    // the nearest-rank percentile of sorted samples
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static String toText(Report r) {
+        return String.format(Locale.ROOT,
+            "%s: %d runs after %d warmup%n"
+                + "  time   min %.3f ms, median %.3f ms, p99 %.3f ms, max %.3f ms%n"
+                + "  alloc  min %s, median %s, p99 %s per run%n"
+                + "  gc     %d collections, %d ms",
+            r.script, r.nanos.length, r.warmup,
+            millis(r.nanos[0]), millis(percentile(r.nanos, 50)), millis(percentile(r.nanos, 99)),
+            millis(r.nanos[r.nanos.length - 1]),
+            bytes(r.allocated[0]), bytes(percentile(r.allocated, 50)), bytes(percentile(r.allocated, 99)),
+            r.gcCount, r.gcMillis);
+    }
+
+    private static String toJson(Report r) {
+        return String.format(Locale.ROOT,
+            "{\"script\": \"%s\", \"warmup\": %d, \"runs\": %d, "
+                + "\"timeMs\": {\"min\": %.3f, \"median\": %.3f, \"p99\": %.3f, \"max\": %.3f}, "
+                + "\"allocatedBytes\": {\"min\": %d, \"median\": %d, \"p99\": %d, \"max\": %d}, "
+                + "\"gc\": {\"count\": %d, \"timeMs\": %d}}",
+            escape(r.script), r.warmup, r.nanos.length,
+            millis(r.nanos[0]), millis(percentile(r.nanos, 50)), millis(percentile(r.nanos, 99)),
+            millis(r.nanos[r.nanos.length - 1]),
+            r.allocated[0], percentile(r.allocated, 50), percentile(r.allocated, 99),
+            r.allocated[r.allocated.length - 1],
+            r.gcCount, r.gcMillis);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String bytes(long bytes) {
+        if(bytes < 1024) return bytes + " B";
+        if(bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder();
+        for(char c : text.toCharArray()) {
+            if(c == '"' || c == '\\') sb.append('\\').append(c);
+            else if(c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
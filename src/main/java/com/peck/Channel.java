@@ -0,0 +1,45 @@
+package com.peck;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Passes values between tasks. A send blocks while the channel is full, and a receive while it's empty.
+ * A channel of capacity 0 hands every value over directly, the sender waits for a receiver.
+ */
+public class Channel {
+
+    // the queues don't take null, nil goes through as this
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    Channel(int capacity) {
+        this.queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) {
+        try {
+            queue.put(value == null ? NIL : value);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Interpreter.NativeError("Interrupted while sending to a channel.");
+        }
+    }
+
+    Object receive() {
+        try {
+            Object value = queue.take();
+            return value == NIL ? null : value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Interpreter.NativeError("Interrupted while receiving from a channel.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,19 @@
+package com.peck;
+
+import java.util.List;
+
+/**
+ * A parsed, checked and optimized program. It is never changed after compiling,
+ * so one script can be run by any number of contexts, on any number of threads.
+ *
+ * The resolution is part of the tree: every variable knows how many scopes away it is declared,
+ * and every return knows if it's a tail call. A context only needs its own globals to run it.
+ */
+public final class CompiledScript {
+
+    final List<Stmt> stmts;
+
+    CompiledScript(List<Stmt> stmts) {
+        this.stmts = List.copyOf(stmts);
+    }
+}
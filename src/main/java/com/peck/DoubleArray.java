@@ -0,0 +1,104 @@
+package com.peck;
+
+import java.util.Arrays;
+
+/**
+ * A fixed number of Lox numbers, made with DoubleArray(n) and filled with zeros.
+ * The numbers are kept as a double[], so a million of them is 8 MB and no boxes, where a list
+ * holds a boxed Long or Double each. They come back out as the same Lox numbers they were,
+ * 3 is a Long again when it's read.
+ *
+ * get, set and length work on it like on a list, fill, copy, sum and dot on the whole array.
+ * Like a list it isn't synchronized, tasks sharing one do so through a channel.
+ */
+public class DoubleArray {
+
+    // the same limit ArrayList has
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    final double[] values;
+
+    DoubleArray(int length) {
+        this.values = new double[length];
+    }
+
+    DoubleArray(double[] values) {
+        this.values = values;
+    }
+
+    static DoubleArray of(Object length) {
+        if(!Numbers.isInteger(length) || Numbers.toLong(length) < 0 || Numbers.toLong(length) > MAX_LENGTH) {
+            throw new Interpreter.NativeError("The length of an array must be an integer from 0 to " + MAX_LENGTH + ".");
+        }
+        return new DoubleArray((int) Numbers.toLong(length));
+    }
+
+    Object get(Object index) {
+        return Numbers.fromDouble(values[checkIndex(index)]);
+    }
+
+    void set(Object index, Object value) {
+        values[checkIndex(index)] = number(value);
+    }
+
+    void fill(Object value) {
+        Arrays.fill(values, number(value));
+    }
+
+    Object sum() {
+        double sum = 0;
+        for(double value : values) {
+            sum += value;
+        }
+        return Numbers.fromDouble(sum);
+    }
+
+    Object dot(DoubleArray other) {
+        if(other.values.length != values.length) {
+            throw new Interpreter.NativeError("Can't take the dot product of arrays of "
+                + values.length + " and " + other.values.length + ".");
+        }
+        double sum = 0;
+        for(int i = 0; i < values.length; i++) {
+            sum += values[i] * other.values[i];
+        }
+        return Numbers.fromDouble(sum);
+    }
+
+    /**
+     * copies count numbers from src at srcIndex to dst at dstIndex, the ranges may overlap.
+     */
+    static void copy(DoubleArray src, Object srcIndex, DoubleArray dst, Object dstIndex, Object count) {
+        if(!Numbers.isInteger(srcIndex) || !Numbers.isInteger(dstIndex) || !Numbers.isInteger(count)) {
+            throw new Interpreter.NativeError("The indexes and count of a copy must be integers.");
+        }
+        long from = Numbers.toLong(srcIndex);
+        long to = Numbers.toLong(dstIndex);
+        long n = Numbers.toLong(count);
+        if(n < 0 || from < 0 || to < 0 || from > src.values.length - n || to > dst.values.length - n) {
+            throw new Interpreter.NativeError("Can't copy " + Numbers.toString(count) + " numbers from index "
+                + Numbers.toString(srcIndex) + " of an array of " + src.values.length + " to index "
+                + Numbers.toString(dstIndex) + " of an array of " + dst.values.length + ".");
+        }
+        System.arraycopy(src.values, (int) from, dst.values, (int) to, (int) n);
+    }
+
+    private int checkIndex(Object index) {
+        if(!Numbers.isInteger(index)) throw new Interpreter.NativeError("An array index must be an integer.");
+        long l = Numbers.toLong(index);
+        if(l < 0 || l >= values.length) {
+            throw new Interpreter.NativeError("Index " + Numbers.toString(index) + " is out of an array of " + values.length + ".");
+        }
+        return (int) l;
+    }
+
+    private static double number(Object value) {
+        if(!Numbers.isNumber(value)) throw new Interpreter.NativeError("An array can only hold numbers.");
+        return Numbers.toDouble(value);
+    }
+
+    @Override
+    public String toString() {
+        return "<doubleArray " + values.length + ">";
+    }
+}
@@ -2,26 +2,55 @@ package com.peck;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Environment {
+    // nil is stored as this, so one lookup tells a nil variable from a missing one.
+    // the map of the globals can't hold null anyway.
+    private static final Object NIL = new Object();
+
     private final Environment parent;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
 
     public Environment() {
-        this.parent = null;
+        this(null, new HashMap<>());
     }
 
     public Environment(Environment parent) {
+        this(parent, new HashMap<>());
+    }
+
+    private Environment(Environment parent, Map<String, Object> values) {
         this.parent = parent;
+        this.values = values;
+    }
+
+    /**
+     * an environment for the globals, tasks running on other threads may read and write it at the same time.
+     */
+    public static Environment shared() {
+        return new Environment(null, new ConcurrentHashMap<>());
+    }
+
+    // for saving an image
+    Environment parent() {
+        return parent;
+    }
+
+    Map<String, Object> variables() {
+        Map<String, Object> copy = new HashMap<>();
+        values.forEach((name, value) -> copy.put(name, value == NIL ? null : value));
+        return copy;
     }
 
     public void define(String name,Object value) {
-        values.put(name, value);
+        values.put(name, value == null ? NIL : value);
     }
 
     public Object get(Token token) {
-        if(values.containsKey(token.getLexeme())) {
-            return values.get(token.getLexeme());
+        Object value = values.get(token.getLexeme());
+        if(value != null) {
+            return value == NIL ? null : value;
         }
 
         if(parent != null) {
@@ -33,8 +62,9 @@ public class Environment {
     }
 
     public Object get(Token token, String name) {
-        if(values.containsKey(name)) {
-            return values.get(name);
+        Object value = values.get(name);
+        if(value != null) {
+            return value == NIL ? null : value;
         }
 
         if(parent != null) {
@@ -46,8 +76,8 @@ public class Environment {
     }
 
     public void assign(Token token, Object value) {
-        if(values.containsKey(token.getLexeme())) {
-            values.put(token.getLexeme(), value);
+        // replace only succeeds for a defined name, and it's atomic in the globals
+        if(values.replace(token.getLexeme(), value == null ? NIL : value) != null) {
             return;
         }
 
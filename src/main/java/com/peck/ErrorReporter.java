@@ -0,0 +1,74 @@
+package com.peck;
+
+import java.io.PrintStream;
+
+import static com.peck.TokenType.EOF;
+
+/**
+ * Where the compile errors and runtime errors of scripts go.
+ * Every context has its own reporter, so scripts running side by side never see each other's errors.
+ * Override report and runtimeError to collect errors somewhere other than a stream.
+ */
+public class ErrorReporter {
+
+    private final PrintStream out;
+    // counted, so a context can tell whether the script it's compiling or running has failed
+    private int errorCount = 0;
+    private int runtimeErrorCount = 0;
+
+    public ErrorReporter(PrintStream out) {
+        this.out = out;
+    }
+
+    public void error(Token token, String message) {
+        errorCount++;
+        if(token.getType() == EOF) {
+            report(token.getLine(),"at end" ,message);
+        } else {
+            report(token.getLine(),"at '"+ token.getLexeme() +"'" ,message);
+        }
+    }
+
+    public void error(int line, String message) {
+        errorCount++;
+        report(line,"",message);
+    }
+
+    public void runtimeError(InterpretError error) {
+        runtimeErrorCount++;
+        out.println("\033[31m[line " + error.getToken().getLine() + "] " + error.getMessage()+"\033[0m");
+    }
+
+    protected void report(int line, String where, String message ) {
+        out.println("[Line " + line + "] Error " + where + ": " + message);
+    }
+
+    public boolean hadError() {
+        return errorCount > 0;
+    }
+
+    public boolean hadRuntimeError() {
+        return runtimeErrorCount > 0;
+    }
+
+    public int errorCount() {
+        return errorCount;
+    }
+
+    public int runtimeErrorCount() {
+        return runtimeErrorCount;
+    }
+
+    // the status a run of a script exits with
+    public int exitStatus() {
+        if(errorCount > 0) return 65;
+        if(runtimeErrorCount > 0) return 70;
+        return 0;
+    }
+
+    // a mistake made in one line of the prompt shouldn't fail the next ones
+    public void reset() {
+        errorCount = 0;
+        runtimeErrorCount = 0;
+    }
+}
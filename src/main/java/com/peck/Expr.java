@@ -84,6 +84,9 @@ public abstract class Expr {
 
     public static class Variable extends Expr {
         final Token name;
+        // how many scopes away the variable is declared, -1 for a global.
+        // it is set by the Resolver while compiling, and never changes after.
+        int depth = -1;
 
         public Variable(Token name) {
             this.name = name;
@@ -98,6 +101,8 @@ public abstract class Expr {
     public static class Assign extends Expr {
         final Token name;
         final Expr value;
+        // same as Variable.depth
+        int depth = -1;
 
         public Assign(Token name, Expr value) {
             this.name = name;
@@ -162,6 +167,8 @@ public abstract class Expr {
 
     public static class This extends Expr {
         final Token token;
+        // same as Variable.depth
+        int depth = -1;
         public This(Token token) {
             this.token = token;
         }
@@ -0,0 +1,131 @@
+package com.peck;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Counts how many times every line of a script runs a statement, and the time spent on it.
+ * Unlike the Profiler these are exact counts, a loop which is accidentally quadratic shows up
+ * as a line run n^2 times.
+ *
+ * The time of a line is its own: while a statement runs the ones nested in it, or a function called
+ * from it, the time goes to their lines. So the times of all lines add up to the run,
+ * and a recursive function isn't counted again at every level. It's wall time, read with nanoTime
+ * at every statement, so a script runs a few times slower with a heat map.
+ */
+public class HeatMap {
+
+    // one per interpreter, so the forks of tasks count without sharing anything
+    private final List<Lines> attached = new ArrayList<>();
+    // what the forks which are done counted, so a script forking a lot doesn't keep a Lines for every one
+    private final Lines detached = new Lines();
+
+    Lines attach() {
+        Lines lines = new Lines();
+        synchronized (attached) {
+            attached.add(lines);
+        }
+        return lines;
+    }
+
+    /**
+     * the interpreter counting in lines is done, its counts are kept but lines isn't.
+     */
+    void detach(Lines lines) {
+        synchronized (attached) {
+            attached.remove(lines);
+            detached.add(lines);
+        }
+    }
+
+    /**
+     * the counts of one interpreter.
+     */
+    static class Lines {
+        private long[] hits = new long[64];
+        private long[] nanos = new long[64];
+        // the line the time since last goes to, -1 before the first statement
+        private int current = -1;
+        private long last;
+        // the lines of the statements the tree walker is in
+        private int[] open = new int[64];
+        private int depth = 0;
+
+        /**
+         * a statement on line starts, the statement running until now continues after it.
+         */
+        void enter(int line) {
+            if(depth == open.length) open = Arrays.copyOf(open, depth * 2);
+            open[depth++] = line;
+            switchTo(line, true);
+        }
+
+        void exit() {
+            depth--;
+            switchTo(depth > 0 ? open[depth - 1] : -1, false);
+        }
+
+        /**
+         * the time from now on goes to line, -1 for none, which runs one more statement if started is true.
+         */
+        void switchTo(int line, boolean started) {
+            long now = System.nanoTime();
+            if(current >= 0) nanos[current] += now - last;
+            if(line >= hits.length) {
+                int size = Math.max(hits.length * 2, line + 1);
+                hits = Arrays.copyOf(hits, size);
+                nanos = Arrays.copyOf(nanos, size);
+            }
+            if(started && line >= 0) hits[line]++;
+            current = line;
+            last = now;
+        }
+
+        private void add(Lines other) {
+            if(other.hits.length > hits.length) {
+                hits = Arrays.copyOf(hits, other.hits.length);
+                nanos = Arrays.copyOf(nanos, other.hits.length);
+            }
+            for(int line = 0; line < other.hits.length; line++) {
+                hits[line] += other.hits[line];
+                nanos[line] += other.nanos[line];
+            }
+        }
+    }
+
+    /**
+     * writes the source with the count and time of every line in front of it.
+     * call it once the interpreters are done.
+     */
+    public void write(String source, Writer out) throws IOException {
+        String[] text = source.split("\r?\n", -1);
+        long[] hits = new long[text.length + 1];
+        long[] nanos = new long[text.length + 1];
+        synchronized (attached) {
+            List<Lines> all = new ArrayList<>(attached);
+            all.add(detached);
+            for(Lines lines : all) {
+                for(int line = 1; line < Math.min(lines.hits.length, hits.length); line++) {
+                    hits[line] += lines.hits[line];
+                    nanos[line] += lines.nanos[line];
+                }
+            }
+        }
+
+        long total = Arrays.stream(nanos).sum();
+        out.write(String.format(Locale.ROOT, "%12s %10s %6s  line%n", "hits", "ms", "%"));
+        for(int line = 1; line <= text.length; line++) {
+            if(hits[line] == 0) {
+                out.write(String.format(Locale.ROOT, "%12s %10s %6s %5d | %s%n", "", "", "", line, text[line - 1]));
+            } else {
+                out.write(String.format(Locale.ROOT, "%12d %10.3f %6.1f %5d | %s%n", hits[line], nanos[line] / 1e6,
+                    total == 0 ? 0.0 : nanos[line] * 100.0 / total, line, text[line - 1]));
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,216 @@
+package com.peck;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replaces calls of small functions by the expression the function returns.
+ *
+ * A call `f(a, b)` is inlined only when all of these hold:
+ * - f is a variable bound to a function declaration, and the Resolver never sees it reassigned or redeclared.
+ * - the body of f is a single `return expression;` whose size is under the budget.
+ * - the expression only reads params and globals (which aren't shadowed at the call site),
+ *   and only calls functions which can be inlined themselves, so a recursive function is never inlined.
+ * - every argument is a literal or a known variable, or it is a side-effect-free expression whose param
+ *   is read exactly once and unconditionally, so inlining never duplicates or drops work.
+ *
+ * The rewritten tree must be resolved again before it is interpreted.
+ */
+public class Inliner extends AstRewriter {
+
+    // a function bigger than this (counted in ast nodes after inlining) is left alone
+    static final int MAX_INLINE_SIZE = 24;
+
+    private static class NotInlinable extends RuntimeException {
+        NotInlinable() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Resolver resolver;
+    // names declared in the local scopes around the node being rewritten
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+    // functions whose body is being inlined now, meeting one of them again means recursion
+    private final Deque<Stmt.Function> expanding = new ArrayDeque<>();
+
+    public Inliner(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public List<Stmt> inline(List<Stmt> stmts) {
+        return rewrite(stmts);
+    }
+
+    private void declare(Token name) {
+        if(scopes.isEmpty()) return;
+        scopes.peek().add(name.getLexeme());
+    }
+
+    private boolean isShadowed(Token name) {
+        for(Set<String> scope : scopes) {
+            if(scope.contains(name.getLexeme())) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashSet<>());
+        super.visitBlockStmt(stmt);
+        scopes.pop();
+    }
+
+    @Override
+    public void visitVarDeclaration(Stmt.VarDeclaration stmt) {
+        // the name is in scope in its own initializer, a global of the same name can't be read there
+        declare(stmt.name);
+        super.visitVarDeclaration(stmt);
+    }
+
+    @Override
+    public void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        Set<String> params = new HashSet<>();
+        for(Token param : stmt.params) params.add(param.getLexeme());
+        scopes.push(params);
+        super.visitFunctionStmt(stmt);
+        scopes.pop();
+    }
+
+    @Override
+    public void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name);
+        super.visitClassStmt(stmt);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        // arguments are rewritten first, so the inner calls have been inlined already
+        Expr.Call call = (Expr.Call) super.visitCallExpr(expr);
+        try {
+            return expand(call);
+        } catch (NotInlinable e) {
+            return call;
+        }
+    }
+
+    private Expr expand(Expr.Call call) {
+        if(!(call.callee instanceof Expr.Variable callee)) throw new NotInlinable();
+        Resolver.Binding binding = resolver.bindingOf(callee);
+        if(binding == null || binding.reassigned
+                || !(binding.declaration instanceof Stmt.Function func)) {
+            throw new NotInlinable();
+        }
+        if(func.params.size() != call.args.size() || expanding.contains(func)) throw new NotInlinable();
+        if(func.body.stmts.size() != 1
+                || !(func.body.stmts.get(0) instanceof Stmt.Return ret)
+                || ret.value == null) {
+            throw new NotInlinable();
+        }
+
+        Substitution sub = new Substitution(func, call.args);
+        expanding.push(func);
+        Expr result;
+        try {
+            result = sub.substitute(ret.value, false);
+        } finally {
+            expanding.pop();
+        }
+
+        for(int i = 0; i < call.args.size(); i++) {
+            Expr arg = call.args.get(i);
+            if(isAtomic(arg)) continue;
+            if(sub.uses[i] != 1 || sub.conditional[i] || !isPure(arg)) throw new NotInlinable();
+        }
+        return result;
+    }
+
+    // reading it twice or not at all is as good as reading it once
+    private boolean isAtomic(Expr expr) {
+        if(expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        return expr instanceof Expr.Variable && resolver.bindingOf(expr) != null;
+    }
+
+    private boolean isPure(Expr expr) {
+        if(expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This) return true;
+        if(expr instanceof Expr.Grouping g) return isPure(g.expression);
+        if(expr instanceof Expr.Unary u) return isPure(u.right);
+        if(expr instanceof Expr.Binary b) return isPure(b.left) && isPure(b.right);
+        if(expr instanceof Expr.Logical l) return isPure(l.left) && isPure(l.right);
+        if(expr instanceof Expr.Get g) return isPure(g.obj);
+        return false;
+    }
+
+    /**
+     * copies the returned expression of a function, with its params replaced by the arguments.
+     */
+    private class Substitution {
+        final Stmt.Function func;
+        final List<Expr> args;
+        final int[] uses;
+        final boolean[] conditional;
+        int size = 0;
+
+        Substitution(Stmt.Function func, List<Expr> args) {
+            this.func = func;
+            this.args = args;
+            this.uses = new int[args.size()];
+            this.conditional = new boolean[args.size()];
+        }
+
+        Expr substitute(Expr expr, boolean inBranch) {
+            if(++size > MAX_INLINE_SIZE) throw new NotInlinable();
+
+            if(expr instanceof Expr.Literal) return expr;
+            if(expr instanceof Expr.Variable var) return substituteVariable(var, inBranch);
+            if(expr instanceof Expr.Grouping g) {
+                return new Expr.Grouping(substitute(g.expression, inBranch));
+            }
+            if(expr instanceof Expr.Unary u) {
+                return new Expr.Unary(u.operator, substitute(u.right, inBranch));
+            }
+            if(expr instanceof Expr.Binary b) {
+                Expr left = substitute(b.left, inBranch);
+                return new Expr.Binary(left, b.operator, substitute(b.right, inBranch));
+            }
+            if(expr instanceof Expr.Logical l) {
+                Expr left = substitute(l.left, inBranch);
+                // the right operand may be skipped
+                return new Expr.Logical(left, l.operator, substitute(l.right, true));
+            }
+            if(expr instanceof Expr.Get g) {
+                return new Expr.Get(substitute(g.obj, inBranch), g.name);
+            }
+            if(expr instanceof Expr.Call c) {
+                Expr callee = substitute(c.callee, inBranch);
+                List<Expr> callArgs = c.args.stream().map(a -> substitute(a, inBranch)).toList();
+                Expr inlined = expand(new Expr.Call(callee, c.paren, callArgs));
+                size += nodeCount(inlined);
+                if(size > MAX_INLINE_SIZE) throw new NotInlinable();
+                return inlined;
+            }
+            // assignments, setters and 'this' can't be moved out of the function
+            throw new NotInlinable();
+        }
+
+        private Expr substituteVariable(Expr.Variable var, boolean inBranch) {
+            Resolver.Binding binding = resolver.bindingOf(var);
+            if(binding != null) {
+                for(int i = 0; i < func.params.size(); i++) {
+                    if(func.params.get(i) == binding.name) {
+                        uses[i]++;
+                        conditional[i] |= inBranch;
+                        return args.get(i);
+                    }
+                }
+            }
+            // anything else must be a global which means the same thing at the call site
+            if((binding != null && !binding.global) || isShadowed(var.name)) throw new NotInlinable();
+            return var;
+        }
+    }
+
+}
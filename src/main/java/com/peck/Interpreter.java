@@ -4,59 +4,315 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
-    public Environment globalEnv = new Environment();
-    private Environment env =  globalEnv;
+    private final ErrorReporter errors;
+    private final OutputSink out;
 
-    private Map<Expr, Integer> locals = new HashMap<>();
+    // shared with every interpreter forked for a task
+    public final Environment globalEnv;
+    // the StackMachine runs code in this environment too
+    Environment env;
 
-    public void interpret(List<Stmt> stmts) {
+    // not null when Lox frames live on a heap-allocated stack instead of the java stack
+    private StackMachine machine;
+    private long heapStackBudget;
 
-        globalEnv.define("clock", new Callable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+    // spawned and not joined yet, the script waits for them before it's done
+    private final Set<Task> tasks;
 
-            @Override
-            public Object call(List<Object> args) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    // counted for the Execute event, shared with the forks
+    private final LongAdder instances;
+
+    // not null while a collector counts what this interpreter and its forks do
+    Metrics metrics;
+
+    // not null while a heat map counts the lines this interpreter runs
+    HeatMap.Lines lines;
+    private HeatMap heatMap;
+
+    // the Lox frames, kept only while a profiler samples them
+    private Profiler profiler;
+    ShadowStack shadow;
+
+    /**
+     * runs everything after on a StackMachine, so the recursion depth is bounded by
+     * the memory budget instead of the java thread stack.
+     */
+    public void useHeapStack(long budgetBytes) {
+        machine = new StackMachine(this, budgetBytes);
+        heapStackBudget = budgetBytes;
+    }
+
+    /**
+     * keeps a shadow stack of the Lox functions being run, for profiler to sample. forks made
+     * from now on are sampled too.
+     */
+    public void profile(Profiler profiler) {
+        this.profiler = profiler;
+        this.shadow = profiler.attach("<script>", true);
+    }
+
+    public void collectMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void countLines(HeatMap heatMap) {
+        this.heatMap = heatMap;
+        this.lines = heatMap.attach();
+    }
+
+    public Interpreter(ErrorReporter errors, OutputSink out) {
+        this.errors = errors;
+        this.out = out;
+        this.globalEnv = Environment.shared();
+        this.env = globalEnv;
+        this.tasks = ConcurrentHashMap.newKeySet();
+        this.instances = new LongAdder();
 
-            @Override
-            public String toString() {
-                return "<native fn>";
+        defineNative("clock", 0, (interpreter, args) -> (double)System.currentTimeMillis() / 1000.0);
+
+        // a task runs a function on a virtual thread, channels pass values between tasks
+        defineNative("spawn", 1, (interpreter, args) -> interpreter.spawn(args.get(0)));
+        defineNative("join", 1, (interpreter, args) -> interpreter.join(args.get(0)));
+        defineNative("channel", 1, (interpreter, args) -> new Channel(capacity(args.get(0))));
+        defineNative("send", 2, (interpreter, args) -> {
+            channel(args.get(0)).send(args.get(1));
+            return null;
+        });
+        defineNative("receive", 1, (interpreter, args) -> channel(args.get(0)).receive());
+
+        defineNative("list", 0, (interpreter, args) -> new LoxList());
+        defineNative("append", 2, (interpreter, args) -> {
+            list(args.get(0)).items.add(args.get(1));
+            return null;
+        });
+        defineNative("get", 2, (interpreter, args) -> switch (args.get(0)) {
+            case DoubleArray a -> a.get(args.get(1));
+            case LoxMap m -> m.get(args.get(1));
+            case MappedFile.View v -> v.get(args.get(1));
+            case String s -> Rope.charAt(s, args.get(1));
+            case Rope r -> Rope.charAt(r, args.get(1));
+            case null, default -> list(args.get(0)).get(args.get(1));
+        });
+        defineNative("set", 3, (interpreter, args) -> {
+            switch (args.get(0)) {
+                case DoubleArray a -> a.set(args.get(1), args.get(2));
+                case LoxMap m -> m.set(args.get(1), args.get(2));
+                case null, default -> list(args.get(0)).set(args.get(1), args.get(2));
             }
+            return null;
+        });
+        defineNative("length", 1, (interpreter, args) -> switch (args.get(0)) {
+            case DoubleArray a -> Numbers.box(a.values.length);
+            case LoxMap m -> Numbers.box(m.size());
+            case MappedFile.View v -> Numbers.box(v.length());
+            case String s -> Numbers.box(s.length());
+            case Rope r -> Numbers.box(Rope.length(r));
+            case null, default -> Numbers.box(list(args.get(0)).items.size());
         });
 
+        // get and set take a key for a map, a missing key gets nil
+        // get and length give the characters of a string too, a string can't be set
+        defineNative("map", 0, (interpreter, args) -> new LoxMap());
+        defineNative("has", 2, (interpreter, args) -> map(args.get(0)).has(args.get(1)));
+        defineNative("remove", 2, (interpreter, args) -> map(args.get(0)).remove(args.get(1)));
+        defineNative("keys", 1, (interpreter, args) -> map(args.get(0)).keys());
+
+        // arrays of numbers, kept unboxed
+        defineNative("DoubleArray", 1, (interpreter, args) -> DoubleArray.of(args.get(0)));
+        defineNative("fill", 2, (interpreter, args) -> {
+            array(args.get(0)).fill(args.get(1));
+            return null;
+        });
+        defineNative("copy", 5, (interpreter, args) -> {
+            DoubleArray.copy(array(args.get(0)), args.get(1), array(args.get(2)), args.get(3), args.get(4));
+            return null;
+        });
+        defineNative("sum", 1, (interpreter, args) -> array(args.get(0)).sum());
+        defineNative("dot", 2, (interpreter, args) -> array(args.get(0)).dot(array(args.get(1))));
+
+        // files mapped read-only, get and length give their bytes
+        defineNative("mapFile", 1, (interpreter, args) -> MappedFile.map(args.get(0)));
+        defineNative("slice", 3, (interpreter, args) -> bytes(args.get(0)).slice(args.get(1), args.get(2)));
+        defineNative("text", 1, (interpreter, args) -> bytes(args.get(0)).text());
+        defineNative("lines", 1, (interpreter, args) -> new MappedFile.Lines(bytes(args.get(0))));
+        defineNative("nextLine", 1, (interpreter, args) -> {
+            if(args.get(0) instanceof MappedFile.Lines lines) return lines.next();
+            throw new NativeError("Expected lines.");
+        });
+        defineNative("field", 3, (interpreter, args) -> bytes(args.get(0)).field(args.get(1), args.get(2)));
+        defineNative("parseNumber", 1, (interpreter, args) -> bytes(args.get(0)).parseNumber());
+
+        // the calls run on a ForkJoinPool, every worker on its own fork of the interpreter
+        defineNative("parallelMap", 2, (interpreter, args) ->
+            Parallel.map(interpreter, list(args.get(0)), function(args.get(1), 1)));
+        defineNative("parallelReduce", 3, (interpreter, args) ->
+            Parallel.reduce(interpreter, list(args.get(0)), function(args.get(1), 2), args.get(2)));
+    }
+
+    // the frames of a fork are its own, everything else is shared with the parent
+    private Interpreter(Interpreter parent) {
+        this.errors = parent.errors;
+        this.out = parent.out;
+        this.globalEnv = parent.globalEnv;
+        this.env = globalEnv;
+        this.tasks = parent.tasks;
+        this.instances = parent.instances;
+        this.metrics = parent.metrics;
+        if(parent.heatMap != null) countLines(parent.heatMap);
+        if(parent.machine != null) useHeapStack(parent.heapStackBudget);
+        if(parent.profiler != null) {
+            this.profiler = parent.profiler;
+            this.shadow = profiler.attach("<task>", false);
+        }
+    }
+
+    /**
+     * an interpreter to call functions on another thread. its environment is a separate
+     * execution context, while the globals, the output and the errors are the parent's.
+     */
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    /**
+     * a fork is done running, what it counted goes to the heat map without keeping the fork's lines.
+     */
+    void finish() {
+        if(heatMap != null) heatMap.detach(lines);
+    }
+
+    private void defineNative(String name, int arity, BiFunction<Interpreter, List<Object>, Object> body) {
+        globalEnv.define(name, new Native(name, arity, body));
+    }
+
+    public void interpret(List<Stmt> stmts) {
         try {
-            for (Stmt stmt : stmts) {
-                execute(stmt);
+            if(machine != null) {
+                machine.run(stmts);
+            } else {
+                for (Stmt stmt : stmts) {
+                    execute(stmt);
+                }
             }
         } catch (InterpretError e) {
-            Lox.runtimeError(e);
+            reportRuntimeError(e);
+        } finally {
+            awaitTasks();
+            out.flush();
         }
     }
 
-    private String stringify(Object val) {
-        if (val == null) return "nil";
-        if (val instanceof Double d) {
-            String text = d.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+    private Task spawn(Object fn) {
+        if(!(fn instanceof Callable callable) || callable.arity() != 0) {
+            throw new NativeError("Can only spawn a function without parameters.");
+        }
+
+        Task task = new Task(fork(), callable);
+        tasks.add(task);
+        task.start();
+        return task;
+    }
+
+    private Object join(Object task) {
+        if(!(task instanceof Task t)) throw new NativeError("Can only join a task.");
+        tasks.remove(t);
+        return t.join();
+    }
+
+    // a task nobody joined still finishes before the script is done, and its error is reported
+    private void awaitTasks() {
+        while(!tasks.isEmpty()) {
+            Task task = tasks.iterator().next();
+            tasks.remove(task);
+            try {
+                task.join();
+            } catch (InterpretError e) {
+                reportRuntimeError(e);
             }
-            return text;
         }
+    }
+
+    private void reportRuntimeError(InterpretError e) {
+        LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+        if(event.shouldCommit()) {
+            event.message = e.getMessage();
+            event.line = e.getToken().getLine();
+            event.commit();
+        }
+        // what was printed before the error comes before it
+        out.flush();
+        errors.runtimeError(e);
+    }
+
+    long instancesCreated() {
+        return instances.sum();
+    }
+
+    private static int capacity(Object val) {
+        if(!Numbers.isInteger(val) || Numbers.toLong(val) < 0 || Numbers.toLong(val) > Integer.MAX_VALUE) {
+            throw new NativeError("The capacity of a channel must be a non-negative integer.");
+        }
+        return (int) Numbers.toLong(val);
+    }
+
+    private static Channel channel(Object val) {
+        if(val instanceof Channel ch) return ch;
+        throw new NativeError("Expected a channel.");
+    }
+
+    private static LoxList list(Object val) {
+        if(val instanceof LoxList l) return l;
+        throw new NativeError("Expected a list.");
+    }
+
+    private static LoxMap map(Object val) {
+        if(val instanceof LoxMap m) return m;
+        throw new NativeError("Expected a map.");
+    }
+
+    private static DoubleArray array(Object val) {
+        if(val instanceof DoubleArray a) return a;
+        throw new NativeError("Expected an array.");
+    }
+
+    private static MappedFile.View bytes(Object val) {
+        if(val instanceof MappedFile.View v) return v;
+        throw new NativeError("Expected bytes of a file.");
+    }
+
+    private static Callable function(Object val, int arity) {
+        if(val instanceof Callable fn && fn.arity() == arity) return fn;
+        throw new NativeError("Expected a function of " + arity + " parameters.");
+    }
+
+    private String stringify(Object val) {
+        if (val == null) return "nil";
+        if (Numbers.isNumber(val)) return Numbers.toString(val);
         return val.toString();
     }
 
     private void execute(Stmt stmt) {
+        if(metrics != null) metrics.evaluated(stmt);
+        if(lines != null) {
+            lines.enter(stmt.line);
+            try {
+                stmt.accept(this);
+            } finally {
+                lines.exit();
+            }
+            return;
+        }
         stmt.accept(this);
     }
 
-    private void executeBlock(Stmt.Block block, Environment env) {
+    void executeBlock(Stmt.Block block, Environment env) {
         Environment parent = this.env;
 
         //we need catch exception here
@@ -75,10 +331,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     }
 
     private Object evaluate(Expr expr){
+        if(metrics != null) metrics.evaluated(expr);
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object value){
+    Environment newEnvironment(Environment enclosing) {
+        if(metrics != null) metrics.environments.increment();
+        return new Environment(enclosing);
+    }
+
+    boolean isTruthy(Object value){
         if(value == null) return false;
         if(value instanceof Boolean b) return b;
         return true;
@@ -87,25 +349,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     private boolean isEqual(Object a, Object b){
         if(a == null && b == null) return true;
         if(a == null) return false;
+        if(Numbers.isNumber(a) && Numbers.isNumber(b)) return Numbers.equal(a, b);
+        if(a instanceof Rope || b instanceof Rope) return Rope.isString(a) && Rope.isString(b) && Rope.equal(a, b);
         return a.equals(b);
     }
 
-    protected void resolve(Expr expr, int span) {
-        locals.put(expr, span);
-    }
-
-    private Object lookUpVariable(Expr expr, Token name) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
+    // the distance has been set by the Resolver, -1 is a global
+    private Object lookUpVariable(int distance, Token name) {
+        if(distance >= 0) {
             return env.getAt(distance, name);
         } else {
             return globalEnv.get(name);
         }
     }
 
-    private void assignVariable(Expr expr, Token name, Object value) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
+    void assignVariable(int distance, Token name, Object value) {
+        if(distance >= 0) {
             env.assignAt(distance, name, value);
         } else {
             globalEnv.assign(name, value);
@@ -116,42 +375,45 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binary(expr, left, right);
+    }
 
+    Object binary(Expr.Binary expr, Object left, Object right) {
         switch (expr.operator.getType()) {
 
             case PLUS:
-                if (left instanceof Double && right instanceof Double)
-                    return (double)left + (double)right;
-                if (left instanceof String && right instanceof String)
-                    return (String)left + (String)right;
+                if (Numbers.isNumber(left) && Numbers.isNumber(right))
+                    return counted(Numbers.add(left, right));
+                if (Rope.isString(left) && Rope.isString(right))
+                    return Rope.concat(left, right);
                 throw new InterpretError(expr.operator
                         , "All operand must be either numbers or strings.");
             case MINUS:
                 checkNumberOperands(expr.operator,left,right);
-                return (double)left - (double)right;
+                return counted(Numbers.subtract(left, right));
             case SLASH:
                 checkNumberOperands(expr.operator,left,right);
-                if ((double)right == 0)
+                if (Numbers.toDouble(right) == 0)
                     throw new InterpretError(expr.operator, "The divisor cannot be zero.");
-                return (double)left / (double)right;
+                return counted(Numbers.divide(left, right));
             case STAR:
                 checkNumberOperands(expr.operator,left,right);
-                return (double)left * (double)right;
+                return counted(Numbers.multiply(left, right));
 
 
 
             case GREATER:
                 checkNumberOperands(expr.operator,left,right);
-                return (double)left > (double)right;
+                return Numbers.less(right, left);
             case LESS:
                 checkNumberOperands(expr.operator,left,right);
-                return (double)left < (double)right;
+                return Numbers.less(left, right);
             case GREATER_EQUAL:
                 checkNumberOperands(expr.operator,left,right);
-                return (double)left >= (double)right;
+                return Numbers.lessEqual(right, left);
             case LESS_EQUAL:
                 checkNumberOperands(expr.operator,left,right);
-                return (double)left <= (double)right;
+                return Numbers.lessEqual(left, right);
 
 
 
@@ -167,12 +429,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
+        return unary(expr, evaluate(expr.right));
+    }
 
+    Object unary(Expr.Unary expr, Object right) {
         switch (expr.operator.getType()) {
             case MINUS:
                 checkNumberOperand(expr.operator,right);
-                return -(double) right;
+                return counted(Numbers.negate(right));
             case BANG:
                 return !isTruthy(right);
             default:
@@ -182,6 +446,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
 
 
+    // every Double arithmetic makes is a new box, small Longs are shared
+    private Object counted(Object number) {
+        if(metrics != null && number instanceof Double) metrics.boxedDoubles.increment();
+        return number;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -194,13 +464,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr, expr.name);
+        return lookUpVariable(expr.depth, expr.name);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object val = evaluate(expr.value);
-        assignVariable(expr, expr.name, val);
+        assignVariable(expr.depth, expr.name, val);
         return val;
     }
 
@@ -219,10 +489,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object obj = evaluate(expr.obj);
+        return getProperty(expr, evaluate(expr.obj));
+    }
 
+    Object getProperty(Expr.Get expr, Object obj) {
         if(obj instanceof Instance ins) {
-            return ins.get(expr.name);
+            if(metrics != null) metrics.propertyLookups.increment();
+            return ins.get(this, expr.name);
         }
 
         throw new InterpretError(expr.name, "Only instances have properties.");
@@ -230,21 +503,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
-        Object obj = evaluate(expr.obj);
-        
-
-        if(obj instanceof Instance ins) {
-            Object val = evaluate(expr.value);    
-            ins.set(expr.name, val);
-            return val;
-        }
+        Instance ins = checkInstance(expr, evaluate(expr.obj));
+        Object val = evaluate(expr.value);
+        ins.set(expr.name, val);
+        return val;
+    }
 
+    Instance checkInstance(Expr.Set expr, Object obj) {
+        if(obj instanceof Instance ins) return ins;
         throw new InterpretError(expr.name, "Only instances have fields.");
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr, expr.token);
+        return lookUpVariable(expr.depth, expr.token);
     }
 
     @Override
@@ -254,8 +526,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
     @Override
     public void visitPrintStmt(Stmt.Print stmt) {
-        Object val = evaluate(stmt.expr);
-        System.out.println(stringify(val));
+        print(evaluate(stmt.expr));
+    }
+
+    void print(Object val) {
+        out.println(stringify(val));
     }
 
     @Override
@@ -269,7 +544,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
 
     @Override
     public void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt, new Environment(this.env));
+        executeBlock(stmt, newEnvironment(this.env));
     }
 
     @Override
@@ -291,12 +566,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
+        List<Object> args = evaluateArgs(expr);
+        return call(checkCallable(expr, callee, args), expr.paren, args);
+    }
 
+    // a native function doesn't know where it's called, so its error is reported at the call
+    Object call(Callable callee, Token paren, List<Object> args) {
+        try {
+            return callee.call(this, args);
+        } catch (NativeError e) {
+            throw new InterpretError(paren, e.getMessage());
+        }
+    }
+
+    private List<Object> evaluateArgs(Expr.Call expr) {
         List<Object> args = new ArrayList<>();
         for(Expr argExpr : expr.args) {
             args.add(evaluate(argExpr));
         }
+        return args;
+    }
 
+    Callable checkCallable(Expr.Call expr, Object callee, List<Object> args) {
         if(!(callee instanceof Callable)) {
             throw new InterpretError(expr.paren, "Can only call functions and classes.");
         }
@@ -307,8 +598,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
                 func.arity() + " arguments but got " +
                 args.size() + ".");
         }
-
-        return func.call(args);
+        return func;
     }
 
     @Override
@@ -320,8 +610,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     @Override
     public void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if(stmt.value != null)
+        if(stmt.tailCall) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            // the call isn't evaluated, but it's counted as if it were
+            if(metrics != null) metrics.evaluated(call);
+            Object callee = evaluate(call.callee);
+            List<Object> args = evaluateArgs(call);
+            Callable func = checkCallable(call, callee, args);
+            // leave the current function first, the caller's loop runs the callee
+            if(func instanceof Function next) throw new TailCall(stmt.keyword, next, args);
+            value = call(func, call.paren, args);
+        } else if(stmt.value != null) {
             value = evaluate(stmt.value);
+        }
 
         throw new ReturnValue(stmt.keyword, value);
     }
@@ -341,28 +642,66 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
-        if(!(operand instanceof Double))
+        if(!Numbers.isNumber(operand))
             throw new InterpretError(operator, "Operand must be a number.");
     }
 
     private void checkNumberOperands(Token operator, Object operand1,Object operand2) {
-        if(!(operand1 instanceof Double && operand2 instanceof Double))
+        if(!(Numbers.isNumber(operand1) && Numbers.isNumber(operand2)))
             throw new InterpretError(operator, "Operand must be a number.");
     }
 
     /**
-     * a Callable can be a function or a class construction
+     * a Callable can be a function or a class construction.
+     * it is called by the interpreter whose frames it runs on, which isn't always the one it was created by.
      */
     interface Callable {
         int arity();
-        Object call(List<Object> args);
+        Object call(Interpreter interpreter, List<Object> args);
+    }
+
+    /**
+     * a function written in java, like clock
+     */
+    static class Native implements Callable {
+        final String name;
+        final int arity;
+        final BiFunction<Interpreter, List<Object>, Object> body;
+
+        Native(String name, int arity, BiFunction<Interpreter, List<Object>, Object> body) {
+            this.name = name;
+            this.arity = arity;
+            this.body = body;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            return body.apply(interpreter, args);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    // thrown by a native function, it becomes an InterpretError at the call
+    static class NativeError extends RuntimeException {
+        NativeError(String message) {
+            super(message);
+        }
     }
 
     /** 
      * function call = function template code + independent environment for execution .
      * This class wraps function code and provides a locally-function environment
      */
-    private class Function implements Callable{
+    static class Function implements Callable{
 
         final Stmt.Function func;
         final Environment closure;
@@ -381,30 +720,63 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
         }
 
         @Override
-        public Object call(List<Object> args) {
-            Environment env = new Environment(closure);
-            
-            //bind params into env
-            for(int i = 0; i < arity() ; i++) {
-                String name = func.params.get(i).getLexeme();
-                Object value = args.get(i);
-                env.define(name, value);
-            }
+        public Object call(Interpreter interpreter, List<Object> args) {
+            if(interpreter.machine != null) return interpreter.machine.invoke(this, args);
 
+            ShadowStack shadow = interpreter.shadow;
+            if(shadow != null) shadow.push(func);
+            LoxEvents.FunctionCall event = new LoxEvents.FunctionCall();
+            event.begin();
             try {
-                executeBlock(func.body, env);
-            } catch(ReturnValue r) {
-                if(isInitiallizer) {
-                    return closure.getAt(0, r.token, "this");
+                return run(interpreter, args, shadow);
+            } finally {
+                if(shadow != null) shadow.pop();
+                event.end();
+                if(event.shouldCommit()) {
+                    event.function = func.name.getLexeme();
+                    event.line = func.name.getLine();
+                    event.commit();
                 }
-                return r.value;
             }
-            
-            return null;
         }
 
-        public Function bind(Instance ins) {
-            Environment bound = new Environment(closure);
+        private Object run(Interpreter interpreter, List<Object> args, ShadowStack shadow) {
+            Function current = this;
+            // every tail call replaces the function running in this loop, so it costs no java stack
+            for(;;) {
+                if(interpreter.metrics != null) interpreter.metrics.calls.increment();
+                Environment env = interpreter.newEnvironment(current.closure);
+
+                //bind params into env
+                for(int i = 0; i < current.arity() ; i++) {
+                    String name = current.func.params.get(i).getLexeme();
+                    Object value = args.get(i);
+                    env.define(name, value);
+                }
+
+                try {
+                    interpreter.executeBlock(current.func.body, env);
+                } catch(TailCall t) {
+                    current = t.callee;
+                    args = t.args;
+                    if(shadow != null) {
+                        shadow.pop();
+                        shadow.push(current.func);
+                    }
+                    continue;
+                } catch(ReturnValue r) {
+                    if(current.isInitiallizer) {
+                        return current.closure.getAt(0, r.token, "this");
+                    }
+                    return r.value;
+                }
+
+                return null;
+            }
+        }
+
+        public Function bind(Interpreter interpreter, Instance ins) {
+            Environment bound = interpreter.newEnvironment(closure);
             bound.define("this", ins);
             return new Function(func, bound, isInitiallizer);
         } 
@@ -417,7 +789,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
     }
 
     //we disguise an RuntimeException as ReturnValue to interrupt java stack
-    private class ReturnValue extends RuntimeException{
+    private static class ReturnValue extends RuntimeException{
         final Token token;
         final Object value;
 
@@ -428,7 +800,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
         }
     }
 
-    private class Class implements Callable {
+    // a 'return f(...)' leaves its function before f is called
+    private static class TailCall extends ReturnValue {
+        final Function callee;
+        final List<Object> args;
+
+        public TailCall(Token token, Function callee, List<Object> args) {
+            super(token, null);
+            this.callee = callee;
+            this.args = args;
+        }
+    }
+
+    static class Class implements Callable {
 
         final Stmt.Class stmt;
         final Map<String, Function> methods;
@@ -451,12 +835,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
             return 0;
         }
 
+        Instance instantiate(Interpreter interpreter) {
+            interpreter.instances.increment();
+            if(interpreter.metrics != null) interpreter.metrics.instances.increment();
+            return new Instance(this);
+        }
+
         @Override
-        public Object call(List<Object> args) {
-            Instance ins = new Instance(this);
+        public Object call(Interpreter interpreter, List<Object> args) {
+            Instance ins = instantiate(interpreter);
             Function init = findMethod("init");
             if(init != null) {
-                init.bind(ins).call(args);
+                init.bind(interpreter, ins).call(interpreter, args);
             }
 
             return ins;
@@ -469,21 +859,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor{
         
     }
 
-    private class Instance {
+    static class Instance {
         final Class cls;
-        private Map<String, Object> fields = new HashMap<>();
+        final Map<String, Object> fields = new HashMap<>();
 
         public Instance(Class cls) {
             this.cls = cls;
         }
 
-        public Object get(Token name) {
+        public Object get(Interpreter interpreter, Token name) {
             if(fields.containsKey(name.getLexeme())) {
                 return fields.get(name.getLexeme()); 
             }
 
             Function method = cls.findMethod(name.getLexeme());
-            if(method != null) return method.bind(this); 
+            if(method != null) return method.bind(interpreter, this);
 
             throw new InterpretError(name, "Undefined property '" + name.getLexeme() + "'.");
         }
@@ -0,0 +1,193 @@
+package com.peck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static com.peck.TokenType.IDENTIFIER;
+import static com.peck.TokenType.OR;
+
+/**
+ * Loop-invariant code motion for while loops (and so for loops, which are desugared into them).
+ *
+ * An expression in a loop is invariant when it has no side effect and every variable it reads is
+ * declared outside the loop and never assigned inside it. Property reads and variables assigned by some
+ * closure are never invariant: a task spawned before the loop may change them while it runs.
+ * A global isn't invariant in a loop which calls anything: a function loaded from an image or defined
+ * by an earlier script in the same context may assign it, and the Resolver never saw that code.
+ *
+ * Evaluating an invariant expression before the loop could raise an error the loop would never raise,
+ * so it is cached lazily instead:
+ *
+ *   while (i < n * 2) ...   =>   { var $inv0; while (i < ($inv0 or ($inv0 = n * 2))) ... }
+ *
+ * The first iteration computes the value and the following ones read it back. A falsy value is just
+ * computed again, which is still correct. The rewritten tree must be resolved again before it is interpreted.
+ */
+public class InvariantHoister extends AstRewriter {
+
+    private final Resolver resolver;
+    // the 'or' expressions made by this pass, they must never be hoisted again
+    private final Set<Expr> hoisted = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int tempCount = 0;
+
+    public InvariantHoister(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public List<Stmt> hoist(List<Stmt> stmts) {
+        return rewrite(stmts);
+    }
+
+    @Override
+    public void visitWhileStmt(Stmt.While stmt) {
+        Loop loop = new Loop(stmt);
+        Expr condition = loop.rewrite(stmt.conditionExpr);
+        Stmt body = loop.rewrite(stmt.body);
+
+        // the loops nested in the body get their own chance
+        body = rewrite(body);
+
+        Stmt result = condition == stmt.conditionExpr && body == stmt.body
+                ? stmt : new Stmt.While(condition, body);
+        result.line = stmt.line;
+        for(Stmt temp : loop.temps) {
+            temp.line = stmt.line;
+        }
+        if(loop.temps.isEmpty()) {
+            replaceWith(result);
+            return;
+        }
+
+        List<Stmt> block = new ArrayList<>(loop.temps);
+        block.add(result);
+        replaceWith(new Stmt.Block(block));
+    }
+
+    /**
+     * what happens inside one loop, and the rewriting of its invariant expressions.
+     */
+    private class Loop extends AstRewriter {
+        final List<Stmt> temps = new ArrayList<>();
+
+        // declared inside the loop, they are new in every iteration
+        final Set<Token> declared = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<Resolver.Binding> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+        // assignments the resolver knows nothing about, only their names
+        final Set<String> assignedNames = new HashSet<>();
+        boolean hasCall = false;
+
+        Loop(Stmt.While stmt) {
+            new Scan().rewrite(stmt);
+        }
+
+        @Override
+        protected Expr rewrite(Expr expr) {
+            if(hoisted.contains(expr)) return expr;
+            if(isInvariant(expr) && isWorthHoisting(expr)) return hoist(expr);
+            return super.rewrite(expr);
+        }
+
+        // functions declared in the loop are run in their own frames, leave them alone
+        @Override
+        public void visitFunctionStmt(Stmt.Function stmt) {
+            replaceWith(stmt);
+        }
+
+        @Override
+        public void visitClassStmt(Stmt.Class stmt) {
+            replaceWith(stmt);
+        }
+
+        private Expr hoist(Expr expr) {
+            int line = lineOf(expr);
+            Token temp = new Token(IDENTIFIER, "$inv" + tempCount++, null, line);
+            this.temps.add(new Stmt.VarDeclaration(temp, null));
+
+            Expr cached = new Expr.Logical(new Expr.Variable(temp)
+                    , new Token(OR, "or", null, line)
+                    , new Expr.Assign(temp, expr));
+            hoisted.add(cached);
+            return cached;
+        }
+
+        private boolean isInvariant(Expr expr) {
+            if(expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+            if(expr instanceof Expr.Variable var) return isInvariant(var);
+            if(expr instanceof Expr.Grouping g) return isInvariant(g.expression);
+            if(expr instanceof Expr.Unary u) return isInvariant(u.right);
+            if(expr instanceof Expr.Binary b) return isInvariant(b.left) && isInvariant(b.right);
+            if(expr instanceof Expr.Logical l) return isInvariant(l.left) && isInvariant(l.right);
+            // calls and assignments have side effects
+            return false;
+        }
+
+        private boolean isInvariant(Expr.Variable var) {
+            Resolver.Binding binding = resolver.bindingOf(var);
+            if(binding == null) return false;
+            if(declared.contains(binding.name) || assigned.contains(binding)) return false;
+            if(assignedNames.contains(var.name.getLexeme())) return false;
+            if(binding.global && hasCall) return false;
+            return !binding.assignedInClosure;
+        }
+
+        // caching costs a variable read, a bare variable or a negated literal isn't worth it
+        private boolean isWorthHoisting(Expr expr) {
+            return nodeCount(expr) >= 3;
+        }
+
+        /**
+         * collects the declarations, assignments and calls inside the loop, changes nothing.
+         */
+        private class Scan extends AstRewriter {
+            @Override
+            public Expr visitAssignExpr(Expr.Assign expr) {
+                Resolver.Binding binding = resolver.bindingOf(expr);
+                if(binding != null) {
+                    assigned.add(binding);
+                } else {
+                    assignedNames.add(expr.name.getLexeme());
+                }
+                return super.visitAssignExpr(expr);
+            }
+
+            @Override
+            public Expr visitCallExpr(Expr.Call expr) {
+                hasCall = true;
+                return super.visitCallExpr(expr);
+            }
+
+            @Override
+            public void visitVarDeclaration(Stmt.VarDeclaration stmt) {
+                declared.add(stmt.name);
+                super.visitVarDeclaration(stmt);
+            }
+
+            @Override
+            public void visitFunctionStmt(Stmt.Function stmt) {
+                declared.add(stmt.name);
+                declared.addAll(stmt.params);
+                super.visitFunctionStmt(stmt);
+            }
+
+            @Override
+            public void visitClassStmt(Stmt.Class stmt) {
+                declared.add(stmt.name);
+                super.visitClassStmt(stmt);
+            }
+        }
+    }
+
+    private static int lineOf(Expr expr) {
+        if(expr instanceof Expr.Binary b) return b.operator.getLine();
+        if(expr instanceof Expr.Unary u) return u.operator.getLine();
+        if(expr instanceof Expr.Logical l) return l.operator.getLine();
+        if(expr instanceof Expr.Variable v) return v.name.getLine();
+        if(expr instanceof Expr.This t) return t.token.getLine();
+        if(expr instanceof Expr.Grouping g) return lineOf(g.expression);
+        return 0;
+    }
+}
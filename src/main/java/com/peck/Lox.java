@@ -3,101 +3,249 @@ package com.peck;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-
-import static com.peck.TokenType.EOF;
+import javax.management.JMException;
 
 
 public class Lox {
 
-    private static final Interpreter interpreter = new Interpreter();
-
-    private static boolean hadError = false;
-    private static boolean hadRuntimeError = false;
-    private static boolean debug = false;
+    // the memory Lox frames may take in heap stack mode, unless it is given
+    private static final long DEFAULT_STACK_BUDGET_MB = 64;
+    private static final int DEFAULT_BENCH_RUNS = 20;
+    private static final int DEFAULT_WARMUP = 5;
 
     public static void main(String[] args) throws IOException {
-        if(args.length > 1) {
-            System.out.println("Usage: jox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        List<String> scripts = new ArrayList<>();
+        boolean inline = false;
+        boolean hoist = false;
+        long heapStackBudget = 0;
+        boolean batch = false;
+        String socket = null;
+        String loadImage = null;
+        String saveImage = null;
+        int outputBuffer = OutputSink.DEFAULT_BUFFER_SIZE;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int benchRuns = 0;
+        int warmup = DEFAULT_WARMUP;
+        boolean json = false;
+        String profile = null;
+        long profileInterval = Profiler.DEFAULT_INTERVAL_MICROS;
+        boolean stats = false;
+        String heatMapFile = null;
+        for(String arg : args) {
+            if(arg.equals("--inline")) {
+                inline = true;
+            } else if(arg.equals("--hoist")) {
+                hoist = true;
+            } else if(arg.equals("--heap-stack")) {
+                heapStackBudget = DEFAULT_STACK_BUDGET_MB * 1024 * 1024;
+            } else if(arg.startsWith("--heap-stack=")) {
+                heapStackBudget = parsePositive(arg.substring("--heap-stack=".length())) * 1024 * 1024;
+            } else if(arg.equals("-O")) {
+                inline = true;
+                hoist = true;
+            } else if(arg.equals("--batch")) {
+                batch = true;
+            } else if(arg.startsWith("--image=")) {
+                loadImage = arg.substring("--image=".length());
+            } else if(arg.startsWith("--save-image=")) {
+                saveImage = arg.substring("--save-image=".length());
+            } else if(arg.startsWith("--output-buffer=")) {
+                outputBuffer = (int) Math.min(parseCount(arg.substring("--output-buffer=".length())), 1024 * 1024) * 1024;
+            } else if(arg.startsWith("--serve=")) {
+                socket = arg.substring("--serve=".length());
+            } else if(arg.startsWith("--jobs=")) {
+                jobs = (int) Math.min(parsePositive(arg.substring("--jobs=".length())), 1024);
+            } else if(arg.equals("--bench")) {
+                benchRuns = DEFAULT_BENCH_RUNS;
+            } else if(arg.startsWith("--bench=")) {
+                benchRuns = (int) Math.min(parsePositive(arg.substring("--bench=".length())), 1_000_000);
+            } else if(arg.startsWith("--warmup=")) {
+                warmup = (int) Math.min(parseCount(arg.substring("--warmup=".length())), 1_000_000);
+            } else if(arg.equals("--json")) {
+                json = true;
+            } else if(arg.startsWith("--heatmap=")) {
+                heatMapFile = arg.substring("--heatmap=".length());
+            } else if(arg.equals("--stats")) {
+                stats = true;
+            } else if(arg.startsWith("--profile=")) {
+                profile = arg.substring("--profile=".length());
+            } else if(arg.startsWith("--profile-interval=")) {
+                profileInterval = parsePositive(arg.substring("--profile-interval=".length()));
+            } else if(arg.startsWith("-")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
         }
-    }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        if ((loadImage != null || saveImage != null) && (socket != null || batch)) usage();
+        if (saveImage != null && scripts.size() != 1) usage();
+        if (benchRuns > 0 && (socket != null || batch || loadImage != null || saveImage != null || scripts.size() != 1)) usage();
+        if (json && benchRuns == 0) usage();
+        if (profile != null && (socket != null || batch || benchRuns > 0 || scripts.size() != 1)) usage();
+        if (stats && benchRuns > 0) usage();
+        if (heatMapFile != null && (socket != null || batch || benchRuns > 0 || scripts.size() != 1)) usage();
+        Metrics metrics = stats ? registerMetrics() : null;
+
+        if (socket != null) {
+            if(!scripts.isEmpty() || batch) usage();
+            LoxServer server = new LoxServer(new LoxEngine(inline, hoist), heapStackBudget);
+            server.setOutputBuffer(outputBuffer);
+            if(metrics != null) server.collectMetrics(metrics);
+            server.serve(Paths.get(socket));
+        } else if (batch) {
+            if(scripts.isEmpty()) usage();
+            BatchRunner runner = new BatchRunner(new LoxEngine(inline, hoist), jobs, heapStackBudget);
+            runner.setOutputBuffer(outputBuffer);
+            if(metrics != null) runner.collectMetrics(metrics);
+            int status = runner.run(scripts, System.out);
+            if(metrics != null) metrics.print(System.err);
+            System.exit(status);
+        } else if (benchRuns > 0) {
+            String source = new String(Files.readAllBytes(Paths.get(scripts.get(0))), Charset.defaultCharset());
+            BenchRunner runner = new BenchRunner(new LoxEngine(inline, hoist), heapStackBudget, warmup, benchRuns);
+            runner.setOutputBuffer(outputBuffer);
+            System.exit(runner.run(scripts.get(0), source, json, System.out));
+        } else if (scripts.size() > 1) {
+            usage();
+        } else if (scripts.size() == 1) {
+            LoxContext context = new LoxEngine(inline, hoist).newContext();
+            if(heapStackBudget > 0) context.useHeapStack(heapStackBudget);
+            context.setOutputBuffer(outputBuffer);
+            if(loadImage != null) loadImage(context, loadImage);
+            if(metrics != null) context.collectMetrics(metrics);
+            Profiler profiler = null;
+            if(profile != null) {
+                profiler = new Profiler(profileInterval);
+                context.profile(profiler);
+                profiler.start();
+            }
+            HeatMap heatMap = null;
+            if(heatMapFile != null) {
+                heatMap = new HeatMap();
+                context.countLines(heatMap);
+            }
 
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+            String source = new String(Files.readAllBytes(Paths.get(scripts.get(0))), Charset.defaultCharset());
+            int status = runFile(context, source);
+            if(profiler != null) writeProfile(profiler, profile);
+            if(heatMap != null) writeHeatMap(heatMap, source, heatMapFile);
+            if(metrics != null) metrics.print(System.err);
+            if(status != 0) System.exit(status);
+            // the script was a prelude, its globals are kept for the next runs
+            if(saveImage != null) saveImage(context, saveImage);
+        } else {
+            // a later line may redefine a function, so the prompt isn't optimized
+            LoxContext context = new LoxEngine().newContext();
+            if(heapStackBudget > 0) context.useHeapStack(heapStackBudget);
+            context.setOutputBuffer(outputBuffer);
+            if(loadImage != null) loadImage(context, loadImage);
+            if(metrics != null) context.collectMetrics(metrics);
+            runPrompt(context);
+            if(metrics != null) metrics.print(System.err);
+        }
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader isr = new InputStreamReader(System.in);
-        BufferedReader br = new BufferedReader(isr);
-
-        for(;;){
-            System.out.print("> ");
-            String line = br.readLine();
-            if(line == null) break;
-            run(line);
+    private static void usage() {
+        System.out.println("Usage: jox [-O] [--inline] [--hoist] [--heap-stack[=megabytes]] [--output-buffer=kilobytes] [--stats] [script]");
+        System.out.println("       jox --batch [--jobs=n] [options] (script | directory)...");
+        System.out.println("       jox --bench[=runs] [--warmup=runs] [--json] [options] script");
+        System.out.println("       jox --profile=file [--profile-interval=micros] [options] script");
+        System.out.println("       jox --heatmap=file [options] script");
+        System.out.println("       jox --serve=socket [options]");
+        System.out.println("       jox [options] --save-image=image prelude");
+        System.out.println("       jox [options] --image=image [script]");
+        System.exit(64);
+    }
 
-            //If the user makes a mistake, it shouldn't kill the entire session
-            hadError = false;
-            hadRuntimeError = false;
+    // a positive number, of megabytes or of jobs
+    private static long parsePositive(String text) {
+        try {
+            long n = Long.parseLong(text);
+            if(n > 0) return n;
+        } catch (NumberFormatException e) {
+            // fall through to usage
         }
+        usage();
+        return 0;
     }
 
-    private static void run(String source) {
-        Scanner sc = new Scanner(source);
-        List<Token> tokens = sc.scanTokens();
+    // no warmup or no output buffer at all is a fair thing to ask for
+    private static long parseCount(String text) {
+        return text.equals("0") ? 0 : parsePositive(text);
+    }
 
-        if(debug) {
-            System.out.println("============== Token ============");
-            for (Token token : tokens) {
-                System.out.println(token);
-            }
+    private static void loadImage(LoxContext context, String image) {
+        try {
+            context.loadImage(Paths.get(image));
+        } catch (IOException e) {
+            System.out.println("Can't load the image " + image + ": " + e.getMessage());
+            System.exit(74);
         }
+    }
 
-        Parser parser = new Parser(tokens);
-        List<Stmt> root = parser.parse();
-
-        if(hadError) return;
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(root);
-
-        if(hadError) return;
-        interpreter.interpret(root);
+    private static void saveImage(LoxContext context, String image) {
+        try {
+            context.saveImage(Paths.get(image));
+        } catch (IOException e) {
+            System.out.println("Can't save the image " + image + ": " + e.getMessage());
+            System.exit(74);
+        }
+    }
 
+    private static int runFile(LoxContext context, String source) {
+        context.eval(source);
+        return context.errors().exitStatus();
     }
 
-    public static void error(Token token, String message) {
-        hadError = true;
-        if(token.getType() == EOF) {
-            report(token.getLine(),"at end" ,message);
-        } else {
-            report(token.getLine(),"at '"+ token.getLexeme() +"'" ,message);
+    // the counters can be watched over JMX while the scripts run, and are printed at exit
+    private static Metrics registerMetrics() {
+        Metrics metrics = new Metrics();
+        try {
+            metrics.register("jox");
+        } catch (JMException e) {
+            System.err.println("Can't register the metrics over JMX: " + e.getMessage());
         }
-
+        return metrics;
     }
 
-    public static void error(int line, String message) {
-        hadError = true;
-        report(line,"",message);
+    private static void writeProfile(Profiler profiler, String path) {
+        profiler.stop();
+        try(Writer out = Files.newBufferedWriter(Paths.get(path))) {
+            profiler.writeCollapsed(out);
+        } catch (IOException e) {
+            System.out.println("Can't write the profile " + path + ": " + e.getMessage());
+            System.exit(74);
+        }
     }
 
-    public static void runtimeError(InterpretError error) {
-        hadRuntimeError = true;
-        System.out.println("\033[31m[line " + error.getToken().getLine() + "] " + error.getMessage()+"\033[0m");
+    private static void writeHeatMap(HeatMap heatMap, String source, String path) {
+        try(Writer out = Files.newBufferedWriter(Paths.get(path))) {
+            heatMap.write(source, out);
+        } catch (IOException e) {
+            System.out.println("Can't write the heat map " + path + ": " + e.getMessage());
+            System.exit(74);
+        }
     }
 
-    private static void report(int line, String where, String message ) {
-        System.out.println("[Line " + line + "] Error " + where + ": " + message);
+    private static void runPrompt(LoxContext context) throws IOException {
+        InputStreamReader isr = new InputStreamReader(System.in);
+        BufferedReader br = new BufferedReader(isr);
+
+        for(;;){
+            System.out.print("> ");
+            String line = br.readLine();
+            if(line == null) break;
+            context.eval(line);
+
+            //If the user makes a mistake, it shouldn't kill the entire session
+            context.errors().reset();
+        }
     }
-}
\ No newline at end of file
+}
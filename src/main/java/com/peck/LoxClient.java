@@ -0,0 +1,58 @@
+package com.peck;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * The thin client of LoxServer: sends one script, copies its output to stdout and exits with its status.
+ * It loads none of the interpreter, so it starts about as fast as a JVM can.
+ *
+ * Usage: LoxClient socket (script | -)
+ * a script is sent as its absolute path, - sends the source read from stdin.
+ */
+public class LoxClient {
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.out.println("Usage: joxc socket (script | -)");
+            System.exit(64);
+        }
+
+        byte kind;
+        byte[] request;
+        if(args[1].equals("-")) {
+            kind = LoxServer.SOURCE;
+            request = System.in.readAllBytes();
+        } else {
+            kind = LoxServer.PATH;
+            request = Path.of(args[1]).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        try(SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(args[0]));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeByte(kind);
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            for(;;) {
+                byte frame = in.readByte();
+                if(frame == LoxServer.EXIT) {
+                    System.out.flush();
+                    System.exit(in.readInt());
+                }
+                byte[] output = in.readNBytes(in.readInt());
+                System.out.write(output, 0, output.length);
+            }
+        }
+    }
+}
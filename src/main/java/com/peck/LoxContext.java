@@ -0,0 +1,121 @@
+package com.peck;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+
+/**
+ * One isolated Lox world: its own globals, output and error reporter.
+ * Contexts share nothing with each other, but a context itself must be used by one thread at a time.
+ */
+public class LoxContext {
+
+    private final LoxEngine engine;
+    private final ErrorReporter errors;
+    private final OutputSink out;
+    private final Interpreter interpreter;
+
+    LoxContext(LoxEngine engine, OutputSink out, ErrorReporter errors) {
+        this.engine = engine;
+        this.errors = errors;
+        this.out = out;
+        this.interpreter = new Interpreter(errors, out);
+    }
+
+    public ErrorReporter errors() {
+        return errors;
+    }
+
+    /**
+     * the text printed from now on goes to writer.
+     */
+    public void redirectOutput(Writer writer) {
+        out.redirect(writer);
+    }
+
+    /**
+     * how many characters of output are kept before they are written, 0 writes every print right away.
+     */
+    public void setOutputBuffer(int chars) {
+        out.resize(chars);
+    }
+
+    public void flushOutput() {
+        out.flush();
+    }
+
+    /**
+     * runs everything after on a StackMachine, see Interpreter.useHeapStack.
+     */
+    public void useHeapStack(long budgetBytes) {
+        interpreter.useHeapStack(budgetBytes);
+    }
+
+    /**
+     * counts what this context's scripts do in metrics, see Metrics.
+     */
+    public void collectMetrics(Metrics metrics) {
+        interpreter.collectMetrics(metrics);
+    }
+
+    /**
+     * counts the runs of every line in heatMap, see HeatMap.
+     */
+    public void countLines(HeatMap heatMap) {
+        interpreter.countLines(heatMap);
+    }
+
+    /**
+     * lets profiler sample the Lox functions this context runs, see Profiler.
+     */
+    public void profile(Profiler profiler) {
+        interpreter.profile(profiler);
+    }
+
+    // value must be a Lox value: a Double or Long, a String, a Boolean or null
+    public void define(String name, Object value) {
+        interpreter.globalEnv.define(name, value);
+    }
+
+    public Object get(String name) {
+        return interpreter.globalEnv.get(new Token(TokenType.IDENTIFIER, name, null, 0));
+    }
+
+    /**
+     * writes the globals, and everything they reach, to an image. see Snapshot.
+     */
+    public void saveImage(Path image) throws IOException {
+        Snapshot.save(interpreter, image);
+    }
+
+    /**
+     * brings back the globals saved in an image, they replace the globals of the same names.
+     */
+    public void loadImage(Path image) throws IOException {
+        Snapshot.load(interpreter, image);
+    }
+
+    /**
+     * returns false if the script failed, the error has been reported.
+     * the script was resolved when it was compiled, so running it again costs nothing more.
+     */
+    public boolean run(CompiledScript script) {
+        LoxEvents.Execute event = new LoxEvents.Execute();
+        long instances = interpreter.instancesCreated();
+        int before = errors.runtimeErrorCount();
+        event.begin();
+        interpreter.interpret(script.stmts);
+        event.end();
+        if(event.shouldCommit()) {
+            event.instances = interpreter.instancesCreated() - instances;
+            event.failed = errors.runtimeErrorCount() > before;
+            event.commit();
+        }
+        return errors.runtimeErrorCount() == before;
+    }
+
+    public boolean eval(String source) {
+        CompiledScript script = engine.compile(source, errors);
+        return script != null && run(script);
+    }
+}
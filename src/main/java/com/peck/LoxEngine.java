@@ -0,0 +1,109 @@
+package com.peck;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Compiles Lox sources and creates the contexts to run them in.
+ *
+ * An engine only holds its options, so it can be shared by all threads. Every context has its own
+ * globals, output and error reporter, so many contexts can run side by side on a thread pool.
+ *
+ * Inlining assumes a compiled script is the whole program: a function it inlines must not be
+ * redefined by code run later in the same context. Don't enable it for prompt-like use.
+ * Hoisting doesn't assume that, a loop calling any function reads its globals again every time,
+ * since code from an image or an earlier eval may assign them.
+ */
+public final class LoxEngine {
+
+    private static final boolean debug = false;
+
+    private final boolean inline;
+    private final boolean hoist;
+
+    public LoxEngine() {
+        this(false, false);
+    }
+
+    public LoxEngine(boolean inline, boolean hoist) {
+        this.inline = inline;
+        this.hoist = hoist;
+    }
+
+    public LoxContext newContext() {
+        return newContext(System.out, new ErrorReporter(System.out));
+    }
+
+    public LoxContext newContext(PrintStream out, ErrorReporter errors) {
+        return newContext(new OutputStreamWriter(out, out.charset()), errors);
+    }
+
+    /**
+     * prints are buffered and written to out at the end of every run, or before an error is reported.
+     */
+    public LoxContext newContext(Writer out, ErrorReporter errors) {
+        return new LoxContext(this, new OutputSink(out, OutputSink.DEFAULT_BUFFER_SIZE), errors);
+    }
+
+    /**
+     * returns null if the source has errors, they have been reported to errors.
+     * errors reported before, by other scripts, don't count.
+     */
+    public CompiledScript compile(String source, ErrorReporter errors) {
+        int before = errors.errorCount();
+        LoxEvents.Phase event = new LoxEvents.Phase("scan");
+        event.begin();
+        Scanner sc = new Scanner(source, errors);
+        List<Token> tokens = sc.scanTokens();
+        event.commit();
+
+        if(debug) {
+            System.out.println("============== Token ============");
+            for (Token token : tokens) {
+                System.out.println(token);
+            }
+        }
+
+        event = new LoxEvents.Phase("parse");
+        event.begin();
+        Parser parser = new Parser(tokens, errors);
+        List<Stmt> root = parser.parse();
+        event.commit();
+
+        if(errors.errorCount() > before) return null;
+        event = new LoxEvents.Phase("resolve");
+        event.begin();
+        Resolver resolver = new Resolver(errors);
+        resolver.resolve(root);
+        event.commit();
+
+        if(errors.errorCount() > before) return null;
+        event = new LoxEvents.Phase("optimize");
+        event.begin();
+        root = optimize(root, resolver, errors, before);
+        event.commit();
+
+        if(root == null) return null;
+        return new CompiledScript(root);
+    }
+
+    // every pass moves code into new scopes, so the tree is resolved again after it.
+    // a pass which broke the tree shows up as an error there, and null is returned
+    private List<Stmt> optimize(List<Stmt> root, Resolver resolver, ErrorReporter errors, int before) {
+        if(inline) {
+            root = new Inliner(resolver).inline(root);
+            resolver = new Resolver(errors);
+            resolver.resolve(root);
+            if(errors.errorCount() > before) return null;
+        }
+        if(hoist) {
+            root = new InvariantHoister(resolver).hoist(root);
+            resolver = new Resolver(errors);
+            resolver.resolve(root);
+            if(errors.errorCount() > before) return null;
+        }
+        return root;
+    }
+}
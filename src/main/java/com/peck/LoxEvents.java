@@ -0,0 +1,75 @@
+package com.peck;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Java Flight Recorder events of Lox, in the Lox category of a recording.
+ *
+ * When no recording is running an event is never committed, and the JIT removes the objects
+ * the instrumented code makes for them. A recording enables them all by default, see the
+ * thresholds for the ones which are only kept when they take long.
+ */
+public final class LoxEvents {
+
+    private LoxEvents() {}
+
+    @Name("com.peck.Phase")
+    @Label("Lox Compile Phase")
+    @Category("Lox")
+    @Description("A phase of compiling a script: scan, parse, resolve or optimize")
+    @StackTrace(false)
+    public static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    @Name("com.peck.Execute")
+    @Label("Lox Execute")
+    @Category("Lox")
+    @Description("A run of a compiled script, until its tasks are done")
+    @StackTrace(false)
+    public static class Execute extends Event {
+        @Label("Instances Created")
+        long instances;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("com.peck.FunctionCall")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("A call of a Lox function which took longer than the threshold")
+    @Threshold("20 ms")
+    @StackTrace(false)
+    public static class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("com.peck.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @Description("A runtime error which ended a script or one of its tasks")
+    @StackTrace(false)
+    public static class RuntimeError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+}
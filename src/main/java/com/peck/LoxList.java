@@ -0,0 +1,43 @@
+package com.peck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The list Lox scripts build with the list, append, get, set and length natives.
+ * parallelMap and parallelReduce work on them.
+ */
+public class LoxList {
+
+    final List<Object> items;
+
+    LoxList() {
+        this.items = new ArrayList<>();
+    }
+
+    LoxList(List<Object> items) {
+        this.items = items;
+    }
+
+    Object get(Object index) {
+        return items.get(checkIndex(index));
+    }
+
+    void set(Object index, Object value) {
+        items.set(checkIndex(index), value);
+    }
+
+    private int checkIndex(Object index) {
+        if(!Numbers.isInteger(index)) throw new Interpreter.NativeError("A list index must be an integer.");
+        long l = Numbers.toLong(index);
+        if(l < 0 || l >= items.size()) {
+            throw new Interpreter.NativeError("Index " + Numbers.toString(index) + " is out of a list of " + items.size() + ".");
+        }
+        return (int) l;
+    }
+
+    @Override
+    public String toString() {
+        return "<list " + items.size() + ">";
+    }
+}
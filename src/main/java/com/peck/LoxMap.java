@@ -0,0 +1,173 @@
+package com.peck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The map Lox scripts build with the map, get, set, has, remove, keys and length natives.
+ *
+ * The keys and values are kept in two flat arrays with open addressing, linear probing and the
+ * hash of every key next to it, so an entry costs two slots and an int where a HashMap makes a node
+ * of its own. A key equals another like == has them: a string by its text, a rope is turned into
+ * its String first, a number by its value, so 1 and 0.5 + 0.5 are the same key. Anything else is
+ * found by equals, which for instances and functions is being the same one. nil can't be a key.
+ *
+ * The keys come out of keys in no particular order. Like a list it isn't synchronized.
+ */
+public class LoxMap {
+
+    // a power of two, so a hash picks a slot by its low bits
+    private static final int MIN_CAPACITY = 8;
+
+    // a null key is an empty slot
+    private Object[] keys = new Object[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private int size = 0;
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        key = checkKey(key);
+        int slot = find(key, hash(key));
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    boolean has(Object key) {
+        key = checkKey(key);
+        return find(key, hash(key)) >= 0;
+    }
+
+    void set(Object key, Object value) {
+        key = checkKey(key);
+        int hash = hash(key);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while(keys[slot] != null) {
+            if(hashes[slot] == hash && same(keys[slot], key)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        hashes[slot] = hash;
+        // at most three quarters full
+        if(++size > keys.length - (keys.length >> 2)) grow();
+    }
+
+    /**
+     * takes key out, returns if it was in.
+     */
+    boolean remove(Object key) {
+        key = checkKey(key);
+        int slot = find(key, hash(key));
+        if(slot < 0) return false;
+
+        // the keys after it which were pushed along move back, so no probe finds a gap before its key
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while(keys[next] != null) {
+            int home = hashes[next] & mask;
+            if(((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                hashes[gap] = hashes[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = null;
+        values[gap] = null;
+        size--;
+        return true;
+    }
+
+    LoxList keys() {
+        List<Object> list = new ArrayList<>(size);
+        for(Object key : keys) {
+            if(key != null) list.add(key);
+        }
+        return new LoxList(list);
+    }
+
+    // the entries for Snapshot, key then value
+    List<Object> entries() {
+        List<Object> entries = new ArrayList<>(size * 2);
+        for(int slot = 0; slot < keys.length; slot++) {
+            if(keys[slot] == null) continue;
+            entries.add(keys[slot]);
+            entries.add(values[slot]);
+        }
+        return entries;
+    }
+
+    private int find(Object key, int hash) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while(keys[slot] != null) {
+            if(hashes[slot] == hash && same(keys[slot], key)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        keys = new Object[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        hashes = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] == null) continue;
+            int slot = oldHashes[i] & mask;
+            while(keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    private static Object checkKey(Object key) {
+        if(key == null) throw new Interpreter.NativeError("A map key can't be nil.");
+        // a rope is kept as its text, so it hashes and compares like any other string
+        if(key instanceof Rope) return key.toString();
+        return key;
+    }
+
+    private static int hash(Object key) {
+        int h;
+        if(key instanceof Long l) {
+            // hashed as its double, a number is the same key whether it's a Long or a Double
+            h = hashNumber(l);
+        } else if(key instanceof Double d) {
+            h = hashNumber(d);
+        } else {
+            h = key.hashCode();
+        }
+        // the low bits pick the slot, mix the high ones into them
+        return h ^ (h >>> 16);
+    }
+
+    // the low bits of a small integer's double are all 0, so they're multiplied up into the high ones
+    private static int hashNumber(double val) {
+        long bits = Double.doubleToLongBits(val) * 0x9e3779b97f4a7c15L;
+        return (int) (bits >>> 32);
+    }
+
+    private static boolean same(Object a, Object b) {
+        if(Numbers.isNumber(a) && Numbers.isNumber(b)) return Numbers.equal(a, b);
+        return a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        return "<map " + size + ">";
+    }
+}
@@ -0,0 +1,164 @@
+package com.peck;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Keeps a warmed-up engine in a long-running process and runs the scripts sent to it over a UNIX domain socket.
+ *
+ * Every connection is one script, run on a virtual thread in a context of its own. The protocol is tiny:
+ * the client sends a kind byte (PATH or SOURCE), an int length and that many bytes: an absolute path
+ * in UTF-8, or the bytes of a script. The server answers with OUTPUT frames (a length and the bytes)
+ * while the script runs, then an EXIT frame with the status a single run would exit with. LoxClient speaks it.
+ *
+ * Scripts are decoded and their output encoded in the default charset, the same as jox does.
+ */
+public class LoxServer {
+
+    static final byte PATH = 'P';
+    static final byte SOURCE = 'S';
+    static final byte OUTPUT = 'O';
+    static final byte EXIT = 'X';
+
+    // output is sent in frames of up to this many bytes, and at the end
+    private static final int FRAME_SIZE = 8192;
+    // a request can't make the server allocate more than this
+    private static final int MAX_REQUEST = 64 * 1024 * 1024;
+
+    private final LoxEngine engine;
+    private final long heapStackBudget;
+    private int outputBuffer = OutputSink.DEFAULT_BUFFER_SIZE;
+    // shared by the contexts of all scripts, or null
+    private Metrics metrics;
+
+    public LoxServer(LoxEngine engine, long heapStackBudget) {
+        this.engine = engine;
+        this.heapStackBudget = heapStackBudget;
+    }
+
+    /**
+     * how many characters of output every script keeps before they are written, see LoxContext.setOutputBuffer.
+     */
+    public void setOutputBuffer(int chars) {
+        this.outputBuffer = chars;
+    }
+
+    /**
+     * counts what every script run from now on does in metrics.
+     */
+    public void collectMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * accepts connections until the process is killed, the socket file is removed on exit.
+     */
+    public void serve(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException e) {
+                    // nothing left to do about it
+                }
+            }));
+            System.out.println("Listening on " + socket);
+
+            for(;;) {
+                SocketChannel client = server.accept();
+                Thread.ofVirtual().start(() -> handle(client));
+            }
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try(client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+
+            byte kind = in.readByte();
+            int length = in.readInt();
+            if(length < 0 || length > MAX_REQUEST || (kind != PATH && kind != SOURCE)) return;
+            // a path is sent in UTF-8, a source as the bytes of the script, read like jox reads a file
+            byte[] request = in.readNBytes(length);
+            String text = new String(request, kind == PATH ? StandardCharsets.UTF_8 : Charset.defaultCharset());
+
+            PrintStream scriptOut = new PrintStream(
+                new BufferedOutputStream(new FrameOutputStream(out), FRAME_SIZE), false, Charset.defaultCharset());
+            int status = run(kind, text, scriptOut);
+            scriptOut.flush();
+
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, its script is dropped
+        }
+    }
+
+    private int run(byte kind, String text, PrintStream out) {
+        String source = text;
+        if(kind == PATH) {
+            try {
+                source = new String(Files.readAllBytes(Path.of(text)), Charset.defaultCharset());
+            } catch (IOException e) {
+                out.println("Can't read " + text + ".");
+                return 66;
+            }
+        }
+
+        LoxContext context = engine.newContext(out, new ErrorReporter(out));
+        if(heapStackBudget > 0) context.useHeapStack(heapStackBudget);
+        context.setOutputBuffer(outputBuffer);
+        if(metrics != null) context.collectMetrics(metrics);
+        try {
+            context.eval(source);
+        } catch (StackOverflowError e) {
+            out.println("Stack overflow.");
+            return 70;
+        }
+        return context.errors().exitStatus();
+    }
+
+    // every write becomes an OUTPUT frame, the BufferedOutputStream above keeps them big
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return;
+            out.writeByte(OUTPUT);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.peck;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped into memory read-only with mapFile, for scripts going through files too big to read in.
+ * The pages are read by the OS as they're touched and never end up on the heap.
+ *
+ * Scripts see a file as a View, a range of its bytes: slice, a line from nextLine or a field are views
+ * of the same mapping, nothing is copied until text makes a string of one. parseNumber reads a number
+ * straight from the bytes.
+ *
+ * A mapping can't be longer than 2 GB, so a bigger file is mapped in chunks. The mapping is freed
+ * when the last view of it is collected.
+ */
+public class MappedFile {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final MappedByteBuffer[] chunks;
+
+    private MappedFile(MappedByteBuffer[] chunks) {
+        this.chunks = chunks;
+    }
+
+    static View map(Object path) {
+        if(!Rope.isString(path)) throw new Interpreter.NativeError("The path of a file must be a string.");
+        try (FileChannel channel = FileChannel.open(Path.of(path.toString()), StandardOpenOption.READ)) {
+            // the mappings stay valid once the channel is closed
+            long size = channel.size();
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for(int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_MASK + 1, size - start));
+            }
+            return new View(new MappedFile(chunks), 0, size);
+        } catch (NoSuchFileException e) {
+            throw new Interpreter.NativeError("Can't map " + path + ", there's no such file.");
+        } catch (IOException | RuntimeException e) {
+            throw new Interpreter.NativeError("Can't map " + path + ": " + e.getMessage());
+        }
+    }
+
+    private byte byteAt(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+    }
+
+    /**
+     * the bytes from start to end of a mapped file. like a string it never changes, tasks can share it.
+     */
+    static class View {
+        private final MappedFile file;
+        private final long start;
+        private final long end;
+
+        private View(MappedFile file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start;
+        }
+
+        /**
+         * the byte at index, from 0 to 255.
+         */
+        Object get(Object index) {
+            if(!Numbers.isInteger(index)) throw new Interpreter.NativeError("A byte index must be an integer.");
+            long l = Numbers.toLong(index);
+            if(l < 0 || l >= length()) {
+                throw new Interpreter.NativeError("Index " + Numbers.toString(index) + " is out of " + length() + " bytes.");
+            }
+            return Numbers.box(file.byteAt(start + l) & 0xff);
+        }
+
+        View slice(Object from, Object to) {
+            if(!Numbers.isInteger(from) || !Numbers.isInteger(to)) {
+                throw new Interpreter.NativeError("The bounds of a slice must be integers.");
+            }
+            long f = Numbers.toLong(from);
+            long t = Numbers.toLong(to);
+            if(f < 0 || f > t || t > length()) {
+                throw new Interpreter.NativeError("Can't slice " + Numbers.toString(from) + " to " + Numbers.toString(to)
+                    + " out of " + length() + " bytes.");
+            }
+            return new View(file, start + f, start + t);
+        }
+
+        /**
+         * the bytes as UTF-8 text.
+         */
+        String text() {
+            if(length() > Integer.MAX_VALUE - 8) throw new Interpreter.NativeError("Too many bytes for a string.");
+            byte[] bytes = new byte[(int) length()];
+            for(int i = 0; i < bytes.length; i++) {
+                bytes[i] = file.byteAt(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * the field-th of the fields separated by the byte separator, from 0, or nil if there are fewer.
+         */
+        View field(Object field, Object separator) {
+            if(!Numbers.isInteger(field) || Numbers.toLong(field) < 0) {
+                throw new Interpreter.NativeError("A field number must be a non-negative integer.");
+            }
+            long n = Numbers.toLong(field);
+            if(!Rope.isString(separator) || separator.toString().length() != 1 || separator.toString().charAt(0) > 0x7f) {
+                throw new Interpreter.NativeError("A separator must be a single ASCII character.");
+            }
+            byte sep = (byte) separator.toString().charAt(0);
+            long from = start;
+            for(long i = 0; i < n; i++) {
+                from = indexOf(sep, from);
+                if(from == end) return null;
+                from++;
+            }
+            return new View(file, from, indexOf(sep, from));
+        }
+
+        // where the next b from pos is, or end
+        private long indexOf(byte b, long pos) {
+            while(pos < end && file.byteAt(pos) != b) pos++;
+            return pos;
+        }
+
+        /**
+         * the number written in the bytes, with spaces around it, or nil if there is none.
+         * it's read like a number literal, with an optional sign and exponent.
+         */
+        Object parseNumber() {
+            long from = start;
+            long to = end;
+            while(from < to && isSpace(file.byteAt(from))) from++;
+            while(to > from && isSpace(file.byteAt(to - 1))) to--;
+
+            // an integer of up to 15 digits is read here, anything else by Double.parseDouble
+            long pos = from;
+            boolean negative = pos < to && file.byteAt(pos) == '-';
+            if(pos < to && (negative || file.byteAt(pos) == '+')) pos++;
+            if(pos == to || to - pos > 15) return parseDouble(from, to);
+            long value = 0;
+            for(; pos < to; pos++) {
+                byte b = file.byteAt(pos);
+                if(b < '0' || b > '9') return parseDouble(from, to);
+                value = value * 10 + (b - '0');
+            }
+            // -0 is a double, like -0 in a script
+            return negative ? (value == 0 ? -0.0 : Numbers.box(-value)) : Numbers.box(value);
+        }
+
+        private Object parseDouble(long from, long to) {
+            // the longest a sensible number gets
+            if(to - from > 64 || to == from) return null;
+            char[] chars = new char[(int) (to - from)];
+            for(int i = 0; i < chars.length; i++) {
+                byte b = file.byteAt(from + i);
+                // the digits, sign, point and exponent only, Double.parseDouble would take "NaN" or "0x1p3" too
+                if(!((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+' || b == 'e' || b == 'E')) return null;
+                chars[i] = (char) b;
+            }
+            try {
+                return Numbers.fromDouble(Double.parseDouble(new String(chars)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+        }
+
+        @Override
+        public String toString() {
+            return "<bytes " + length() + ">";
+        }
+    }
+
+    /**
+     * goes through the lines of a view, nextLine gives the next one without its line break.
+     */
+    static class Lines {
+        private final View view;
+        private long pos;
+
+        Lines(View view) {
+            this.view = view;
+            this.pos = view.start;
+        }
+
+        View next() {
+            if(pos >= view.end) return null;
+            long lineEnd = view.indexOf((byte) '\n', pos);
+            long textEnd = lineEnd;
+            if(textEnd > pos && view.file.byteAt(textEnd - 1) == '\r') textEnd--;
+            View line = new View(view.file, pos, textEnd);
+            pos = lineEnd + 1;
+            return line;
+        }
+
+        @Override
+        public String toString() {
+            return "<lines>";
+        }
+    }
+}
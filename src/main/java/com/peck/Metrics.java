@@ -0,0 +1,107 @@
+package com.peck;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the interpreters attached to it do: the nodes they evaluate by type, the Lox functions
+ * they call, the properties they look up, and the environments, instances and Doubles they make.
+ *
+ * Many interpreters on many threads can share a collector, the scripts of a batch or of a server,
+ * and the forks of a script always do. The counters are LongAdders, so they don't contend.
+ * An interpreter without a collector only checks for one.
+ */
+public class Metrics implements MetricsMXBean {
+
+    final LongAdder calls = new LongAdder();
+    final LongAdder propertyLookups = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder instances = new LongAdder();
+    final LongAdder boxedDoubles = new LongAdder();
+
+    private final Map<String, LongAdder> nodes = new ConcurrentHashMap<>();
+    // finds the counter of a node class without making its name every time
+    private final ClassValue<LongAdder> nodeCounters = new ClassValue<>() {
+        @Override
+        protected LongAdder computeValue(Class<?> type) {
+            String name = type.getName().substring(type.getPackageName().length() + 1).replace('$', '.');
+            return nodes.computeIfAbsent(name, n -> new LongAdder());
+        }
+    };
+
+    private ObjectName registered;
+
+    void evaluated(Object node) {
+        nodeCounters.get(node.getClass()).increment();
+    }
+
+    /**
+     * makes the counters visible over JMX as com.peck:type=Metrics,name=name.
+     */
+    public synchronized void register(String name) throws JMException {
+        registered = new ObjectName("com.peck", new Hashtable<>(Map.of("type", "Metrics", "name", name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+    }
+
+    public synchronized void unregister() throws JMException {
+        if(registered == null) return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        registered = null;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getPropertyLookups() {
+        return propertyLookups.sum();
+    }
+
+    @Override
+    public long getEnvironments() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getInstances() {
+        return instances.sum();
+    }
+
+    @Override
+    public long getBoxedDoubles() {
+        return boxedDoubles.sum();
+    }
+
+    @Override
+    public Map<String, Long> getNodeEvaluations() {
+        Map<String, Long> counts = new TreeMap<>();
+        nodes.forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+
+    /**
+     * prints every counter on a line of its own, the node types by name.
+     */
+    public void print(PrintStream out) {
+        out.println("== stats");
+        line(out, "calls", getCalls());
+        line(out, "property lookups", getPropertyLookups());
+        line(out, "environments", getEnvironments());
+        line(out, "instances", getInstances());
+        line(out, "boxed doubles", getBoxedDoubles());
+        getNodeEvaluations().forEach((name, count) -> line(out, name, count));
+    }
+
+    private static void line(PrintStream out, String name, long count) {
+        out.println(String.format("%-20s %d", name, count));
+    }
+}
@@ -0,0 +1,22 @@
+package com.peck;
+
+import java.util.Map;
+
+/**
+ * What a Metrics collector shows over JMX, under com.peck:type=Metrics.
+ */
+public interface MetricsMXBean {
+
+    long getCalls();
+
+    long getPropertyLookups();
+
+    long getEnvironments();
+
+    long getInstances();
+
+    long getBoxedDoubles();
+
+    // evaluations per node type, like Expr.Binary
+    Map<String, Long> getNodeEvaluations();
+}
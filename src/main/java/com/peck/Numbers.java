@@ -0,0 +1,131 @@
+package com.peck;
+
+/**
+ * Arithmetic on Lox numbers.
+ *
+ * A Lox number is a double, but an integral value is kept as a Long as long as a double would hold
+ * it exactly (within +-2^53). Every operation on such values gives the same result the double one gives,
+ * and once a result leaves that range, isn't integral or is -0 it becomes a Double.
+ */
+public final class Numbers {
+
+    // beyond this not every integer is a double
+    static final long MAX_EXACT = 1L << 53;
+
+    // small integers are used as counters and indexes all the time, share their boxes
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final Long[] cache = new Long[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for(int i = 0; i < cache.length; i++) {
+            cache[i] = (long) (i + CACHE_LOW);
+        }
+    }
+
+    private Numbers() {}
+
+    public static boolean isNumber(Object val) {
+        return val instanceof Long || val instanceof Double;
+    }
+
+    public static Object box(long val) {
+        if(val >= CACHE_LOW && val <= CACHE_HIGH) return cache[(int) val - CACHE_LOW];
+        if(val > MAX_EXACT || val < -MAX_EXACT) return (double) val;
+        return val;
+    }
+
+    /**
+     * the Lox number of a double, a Long if it's integral and within 2^53.
+     */
+    public static Object fromDouble(double val) {
+        long l = (long) val;
+        if(l == val && l <= MAX_EXACT && l >= -MAX_EXACT && (l != 0 || Double.doubleToRawLongBits(val) == 0)) {
+            return box(l);
+        }
+        return val;
+    }
+
+    /**
+     * if val is a number with an integer value, like an index or a count must be.
+     * 2 is one whether it's the Long 2 or the Double 1.5 + 0.5.
+     */
+    public static boolean isInteger(Object val) {
+        if(val instanceof Long) return true;
+        return val instanceof Double d && d == Math.rint(d) && !Double.isInfinite(d);
+    }
+
+    // val is an integer, see isInteger
+    public static long toLong(Object val) {
+        if(val instanceof Long l) return l;
+        return (long) (double) (Double) val;
+    }
+
+    public static double toDouble(Object val) {
+        if(val instanceof Long l) return l;
+        return (Double) val;
+    }
+
+    public static Object add(Object a, Object b) {
+        // both are within 2^53, so the sum can't overflow
+        if(a instanceof Long x && b instanceof Long y) return box(x + y);
+        return toDouble(a) + toDouble(b);
+    }
+
+    public static Object subtract(Object a, Object b) {
+        if(a instanceof Long x && b instanceof Long y) return box(x - y);
+        return toDouble(a) - toDouble(b);
+    }
+
+    public static Object multiply(Object a, Object b) {
+        if(a instanceof Long x && b instanceof Long y) {
+            long high = Math.multiplyHigh(x, y);
+            long product = x * y;
+            if((high == 0 && product >= 0) || (high == -1 && product < 0)) {
+                // 0 * -1 is -0 in double
+                if(product == 0 && (x < 0 || y < 0)) return -0.0;
+                return box(product);
+            }
+        }
+        return toDouble(a) * toDouble(b);
+    }
+
+    // the divisor has been checked not to be zero
+    public static Object divide(Object a, Object b) {
+        if(a instanceof Long x && b instanceof Long y && x != 0 && x % y == 0) return box(x / y);
+        return toDouble(a) / toDouble(b);
+    }
+
+    public static Object negate(Object a) {
+        if(a instanceof Long x) return x == 0 ? -0.0 : box(-x);
+        return -(Double) a;
+    }
+
+    public static boolean less(Object a, Object b) {
+        if(a instanceof Long x && b instanceof Long y) return x < y;
+        return toDouble(a) < toDouble(b);
+    }
+
+    public static boolean lessEqual(Object a, Object b) {
+        if(a instanceof Long x && b instanceof Long y) return x <= y;
+        return toDouble(a) <= toDouble(b);
+    }
+
+    // the same as Double.equals, which Lox has always used: NaN equals itself and -0 doesn't equal 0
+    public static boolean equal(Object a, Object b) {
+        if(a instanceof Long x && b instanceof Long y) return x.longValue() == y.longValue();
+        return Double.valueOf(toDouble(a)).equals(toDouble(b));
+    }
+
+    public static String toString(Object val) {
+        if(val instanceof Long l && l < 10_000_000 && l > -10_000_000) {
+            return l.toString();
+        }
+        // a big integer is printed in the exponent form as a double would be
+        String text = Double.toString(toDouble(val));
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
+}
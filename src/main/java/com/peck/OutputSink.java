@@ -0,0 +1,100 @@
+package com.peck;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Where print statements write to. It keeps the text in a buffer and writes it out when the buffer is full
+ * or at a flush point: the end of a script, before an error is reported and before the prompt is shown.
+ * A script printing a line at a time then costs one write to the stream every few thousand characters
+ * instead of one per line.
+ *
+ * Tasks and parallel workers print to the same sink, so it's synchronized. An embedder can redirect it
+ * to any Writer.
+ */
+public class OutputSink {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private Writer writer;
+    private char[] buffer;
+    private int count = 0;
+
+    public OutputSink(Writer writer, int bufferSize) {
+        this.writer = writer;
+        this.buffer = new char[bufferSize];
+    }
+
+    public synchronized void println(String text) {
+        if(buffer.length == 0) {
+            write(text);
+            write("\n");
+            flush();
+            return;
+        }
+
+        append(text);
+        if(count == buffer.length) drain();
+        buffer[count++] = '\n';
+    }
+
+    private void append(String text) {
+        int length = text.length();
+        if(length > buffer.length - count) {
+            drain();
+            // it can't be buffered, write it directly
+            if(length >= buffer.length) {
+                write(text);
+                return;
+            }
+        }
+        text.getChars(0, length, buffer, count);
+        count += length;
+    }
+
+    /**
+     * writes out what's buffered, and flushes the writer.
+     */
+    public synchronized void flush() {
+        drain();
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            // like System.out, a broken output doesn't stop the script
+        }
+    }
+
+    /**
+     * prints go to writer from now on, what was printed before goes to the old one first.
+     */
+    public synchronized void redirect(Writer writer) {
+        flush();
+        this.writer = writer;
+    }
+
+    /**
+     * a size of 0 writes every print right away.
+     */
+    public synchronized void resize(int bufferSize) {
+        flush();
+        this.buffer = new char[bufferSize];
+    }
+
+    private void drain() {
+        if(count == 0) return;
+        try {
+            writer.write(buffer, 0, count);
+        } catch (IOException e) {
+            // see flush
+        }
+        count = 0;
+    }
+
+    private void write(String text) {
+        try {
+            writer.write(text);
+        } catch (IOException e) {
+            // see flush
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.peck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * parallelMap and parallelReduce: a list is split into chunks which run on the common ForkJoinPool.
+ *
+ * Every chunk gets an interpreter forked from the caller's, so the frames of the calls running at the
+ * same time never meet, while all of them see the same globals.
+ */
+public final class Parallel {
+
+    // a few chunks per core, so a worker which finishes early can steal some more
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private Parallel() {}
+
+    static LoxList map(Interpreter parent, LoxList list, Interpreter.Callable fn) {
+        Object[] results = new Object[list.items.size()];
+        ForkJoinPool.commonPool().invoke(new MapChunk(parent, list.items, fn, results, 0, results.length));
+        return new LoxList(new ArrayList<>(Arrays.asList(results)));
+    }
+
+    /**
+     * every chunk is reduced from init, then the results of the chunks are reduced by fn too.
+     * so fn must be associative and init must not change what it's combined with, like 0 for a sum.
+     */
+    static Object reduce(Interpreter parent, LoxList list, Interpreter.Callable fn, Object init) {
+        if(list.items.isEmpty()) return init;
+        return ForkJoinPool.commonPool().invoke(new ReduceChunk(parent, list.items, fn, init, 0, list.items.size()));
+    }
+
+    private static int threshold(int size) {
+        int chunks = ForkJoinPool.commonPool().getParallelism() * CHUNKS_PER_WORKER;
+        return Math.max(1, size / chunks);
+    }
+
+    private static class MapChunk extends RecursiveTask<Void> {
+        final Interpreter parent;
+        final List<Object> items;
+        final Interpreter.Callable fn;
+        final Object[] results;
+        final int from;
+        final int to;
+
+        MapChunk(Interpreter parent, List<Object> items, Interpreter.Callable fn, Object[] results, int from, int to) {
+            this.parent = parent;
+            this.items = items;
+            this.fn = fn;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Void compute() {
+            if(to - from > threshold(items.size())) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MapChunk(parent, items, fn, results, from, mid),
+                    new MapChunk(parent, items, fn, results, mid, to));
+                return null;
+            }
+
+            Interpreter worker = parent.fork();
+            try {
+                for(int i = from; i < to; i++) {
+                    results[i] = fn.call(worker, Arrays.asList(items.get(i)));
+                }
+            } finally {
+                worker.finish();
+            }
+            return null;
+        }
+    }
+
+    private static class ReduceChunk extends RecursiveTask<Object> {
+        final Interpreter parent;
+        final List<Object> items;
+        final Interpreter.Callable fn;
+        final Object init;
+        final int from;
+        final int to;
+
+        ReduceChunk(Interpreter parent, List<Object> items, Interpreter.Callable fn, Object init, int from, int to) {
+            this.parent = parent;
+            this.items = items;
+            this.fn = fn;
+            this.init = init;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object compute() {
+            if(to - from > threshold(items.size())) {
+                int mid = (from + to) >>> 1;
+                ReduceChunk right = new ReduceChunk(parent, items, fn, init, mid, to);
+                right.fork();
+                Object left = new ReduceChunk(parent, items, fn, init, from, mid).compute();
+                Interpreter worker = parent.fork();
+                try {
+                    return fn.call(worker, Arrays.asList(left, right.join()));
+                } finally {
+                    worker.finish();
+                }
+            }
+
+            Interpreter worker = parent.fork();
+            Object acc = init;
+            try {
+                for(int i = from; i < to; i++) {
+                    acc = fn.call(worker, Arrays.asList(acc, items.get(i)));
+                }
+            } finally {
+                worker.finish();
+            }
+            return acc;
+        }
+    }
+}
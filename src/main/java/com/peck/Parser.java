@@ -12,10 +12,12 @@ public class Parser {
     private static class ParseError extends RuntimeException {}
 
     private final List<Token> tokens;
+    private final ErrorReporter errors;
     private int current = 1; // index 0 is SOF
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, ErrorReporter errors) {
         this.tokens = tokens;
+        this.errors = errors;
     }
 
     public List<Stmt> parse() {
@@ -28,10 +30,11 @@ public class Parser {
      * declaration ->   classDeclaration | varDeclaration | funDeclaration | statement
      */
     private Stmt declaration() {
+        int line = peek().getLine();
         try {
-            if(consumeIfMatchAny(CLASS)) return classDeclaration();
-            if(consumeIfMatchAny(FUN)) return funDeclaration();
-            if(consumeIfMatchAny(VAR)) return varDeclaration();
+            if(consumeIfMatchAny(CLASS)) return at(line, classDeclaration());
+            if(consumeIfMatchAny(FUN)) return at(line, funDeclaration());
+            if(consumeIfMatchAny(VAR)) return at(line, varDeclaration());
             return statement();
         } catch (ParseError e) {
             synchronize();
@@ -81,7 +84,7 @@ public class Parser {
         consume(LEFT_BRACE, "Expect '{' before class body.");
         List<Stmt.Function> methods = new ArrayList<>();
         while(peek().getType() != RIGHT_BRACE && !isAtEnd()) {
-            methods.add((Stmt.Function)funDeclaration());
+            methods.add((Stmt.Function)at(peek().getLine(), funDeclaration()));
 
         }
         consume(RIGHT_BRACE, "Expect '}' after class body.");
@@ -93,14 +96,20 @@ public class Parser {
      * statement ->   exprStmt | printStmt | ifStmt | whileStmt | for | block
      */
     private Stmt statement() {
-        if(consumeIfMatchAny(IF)) return ifStatement();
-        if(consumeIfMatchAny(WHILE)) return whileStatement();
-        if(consumeIfMatchAny(FOR)) return forStatement();
-        if(consumeIfMatchAny(RETURN)) return returnStatement();
-        if(consumeIfMatchAny(PRINT)) return printStatement();
-        if(consumeIfMatchAny(LEFT_BRACE)) return blockStatement();
+        int line = peek().getLine();
+        if(consumeIfMatchAny(IF)) return at(line, ifStatement());
+        if(consumeIfMatchAny(WHILE)) return at(line, whileStatement());
+        if(consumeIfMatchAny(FOR)) return at(line, forStatement());
+        if(consumeIfMatchAny(RETURN)) return at(line, returnStatement());
+        if(consumeIfMatchAny(PRINT)) return at(line, printStatement());
+        if(consumeIfMatchAny(LEFT_BRACE)) return at(line, blockStatement());
 
-        return expressionStatement();
+        return at(line, expressionStatement());
+    }
+
+    private Stmt at(int line, Stmt stmt) {
+        stmt.line = line;
+        return stmt;
     }
 
 
@@ -111,15 +120,16 @@ public class Parser {
      *        ')' statement
      */
     private Stmt forStatement() {
+        int line = previous().getLine();
         consume(LEFT_PAREN,"Expect '(' after 'for'.");
         
         Stmt initializer;
         if(consumeIfMatchAny(SEMICOLON)) {
             initializer = null;
         } else if(consumeIfMatchAny(VAR)) {
-            initializer = varDeclaration();
+            initializer = at(line, varDeclaration());
         } else {
-            initializer = expressionStatement();
+            initializer = at(line, expressionStatement());
         }
 
         Expr condition = new Expr.Literal(true);
@@ -129,6 +139,7 @@ public class Parser {
         consume(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
+        int incrementLine = peek().getLine();
         if(peek().getType() != RIGHT_PAREN) {
             increment = expression();
         }
@@ -138,10 +149,10 @@ public class Parser {
         Stmt body = statement();
 
         if(increment != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+            body = at(body.line, new Stmt.Block(Arrays.asList(body, at(incrementLine, new Stmt.Expression(increment)))));
         }
 
-        body = new Stmt.While(condition, body);
+        body = at(line, new Stmt.While(condition, body));
 
         if(initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -477,7 +488,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
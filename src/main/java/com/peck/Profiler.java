@@ -0,0 +1,94 @@
+package com.peck;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler of Lox code. A thread of its own wakes up every interval and records the Lox stack
+ * of every interpreter attached to it, the script's and those forked for its tasks and parallel workers.
+ * The interpreters only keep a ShadowStack, so the cost to the script is a couple of writes per call.
+ *
+ * A sample is a wall-clock one: a function waiting on a channel or a join is counted like a busy one.
+ * The result is written as collapsed stacks, a "frame;frame;frame count" line per stack,
+ * which flamegraph.pl and speedscope read.
+ */
+public class Profiler {
+
+    public static final long DEFAULT_INTERVAL_MICROS = 10_000;
+
+    private final long intervalNanos;
+    // a fork is dropped from here when it's done and collected
+    private final Set<ShadowStack> stacks = Collections.newSetFromMap(new WeakHashMap<>());
+    private final Map<String, Long> counts = new HashMap<>();
+    private final StringBuilder sb = new StringBuilder();
+    private Thread sampler;
+    private volatile boolean running;
+
+    public Profiler(long intervalMicros) {
+        this.intervalNanos = intervalMicros * 1000;
+    }
+
+    ShadowStack attach(String root, boolean topLevel) {
+        ShadowStack stack = new ShadowStack(root, topLevel);
+        synchronized (stacks) {
+            stacks.add(stack);
+        }
+        return stack;
+    }
+
+    public void start() {
+        running = true;
+        sampler = Thread.ofPlatform().daemon().name("lox-profiler").start(() -> {
+            while(running) {
+                LockSupport.parkNanos(intervalNanos);
+                sample();
+            }
+        });
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        List<ShadowStack> attached;
+        synchronized (stacks) {
+            attached = new ArrayList<>(stacks);
+        }
+
+        synchronized (counts) {
+            for(ShadowStack stack : attached) {
+                sb.setLength(0);
+                if(stack.collapse(sb)) counts.merge(sb.toString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * writes the stacks sampled so far, sorted so two profiles of a script can be diffed.
+     */
+    public void writeCollapsed(Writer out) throws IOException {
+        Map<String, Long> sorted;
+        synchronized (counts) {
+            sorted = new TreeMap<>(counts);
+        }
+        for(Map.Entry<String, Long> e : sorted.entrySet()) {
+            out.write(e.getKey() + " " + e.getValue() + "\n");
+        }
+        out.flush();
+    }
+}
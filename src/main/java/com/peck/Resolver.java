@@ -7,15 +7,21 @@ import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     
-    private final Interpreter interpreter;
-    // 'false' represent this variable only be declare but not be defined, we can't use this variable.
-    // 'true' represent this variable is be defined, it is available.
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter errors;
+    // every name declared in a scope has a binding.
+    // a binding which is only be declared but not be defined can't be used.
+    private final Stack<Map<String, Binding>> scopes = new Stack<>();
+    // global variables aren't tracked by scopes, but we still want to know what happened to them.
+    private final Map<String, Binding> globals = new HashMap<>();
+    // which binding a variable or assign expression refers to, optimizer passes use this.
+    private final Map<Expr, Binding> bindings = new HashMap<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // how many functions enclose the code being resolved
+    private int functionDepth = 0;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    public Resolver(ErrorReporter errors) {
+        this.errors = errors;
     }
 
     // we should resolve the variable be read in some expression(always a variable expression in leaf node in ast).
@@ -23,29 +29,60 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
     // after resolving, every variable expression (identifer) will have a span that represent 
     // the distance between the current scope and one that variable existed.
+    // the span is kept in the node, so a compiled script carries its own resolution.
     private void doResolve(Expr expr, Token name) {
         int len = scopes.size();
         for(int i = len - 1; i >= 0 ; i--) {
             var scope = scopes.get(i);
-            Boolean flag = scope.get(name.getLexeme());
-            if(flag != null && flag) {
-                interpreter.resolve(expr, len - 1 - i);
+            Binding binding = scope.get(name.getLexeme());
+            if(binding != null && binding.defined) {
+                setDepth(expr, len - 1 - i);
+                bindings.put(expr, binding);
                 return;
             }
         }
+
+        // a node may have been resolved in another place before an optimizer moved it
+        setDepth(expr, -1);
+
+        // a global only be known after its declaration has been resolved
+        Binding global = globals.get(name.getLexeme());
+        if(global != null && global.declaration != null) {
+            bindings.put(expr, global);
+        }
+    }
+
+    private void setDepth(Expr expr, int depth) {
+        if(expr instanceof Expr.Variable var) {
+            var.depth = depth;
+        } else if(expr instanceof Expr.Assign assign) {
+            assign.depth = depth;
+        } else if(expr instanceof Expr.This self) {
+            self.depth = depth;
+        }
+    }
+
+    /**
+     * the binding a variable, assign or this expression refers to,
+     * or null if it refers to a global which isn't declared before it.
+     */
+    public Binding bindingOf(Expr expr) {
+        return bindings.get(expr);
     }
 
     // we should resolve params and variables in body of function.
     private void resolveFunction(Stmt.Function func, FunctionType type) {
         FunctionType parentType = currentFunction;
         currentFunction = type;
+        functionDepth++;
         beginScope();
         for(Token param : func.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
         resolve(func.body.stmts);
         endScope();
+        functionDepth--;
         currentFunction = parentType;
     }
 
@@ -66,7 +103,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
     // we should push or pop a scope when an environment be create or destory.
     private void beginScope() {
-        scopes.push(new HashMap<String,Boolean>());
+        scopes.push(new HashMap<String,Binding>());
     }
 
     private void endScope() {
@@ -76,17 +113,49 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
     // we should declare and define a variable or function when it be created.
     // and we can't use a variable before it be defined (or only be declared).
-    private void declare(Token name) {
-        if(scopes.isEmpty()) return;
+    private void declare(Token name, Stmt declaration) {
+        if(scopes.isEmpty()) {
+            declareGlobal(name, declaration);
+            return;
+        }
         if(scopes.peek().containsKey(name.getLexeme())) {
-            Lox.error(name, "Already a virable with this name in this scope.");
+            errors.error(name, "Already a virable with this name in this scope.");
         }
-        scopes.peek().put(name.getLexeme(), false);
+        scopes.peek().put(name.getLexeme(), new Binding(name, declaration, false, functionDepth));
     }
 
     private void define(Token name) {
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.getLexeme(), true);
+        scopes.peek().get(name.getLexeme()).defined = true;
+    }
+
+    // a global can be declared many times, every declaration after the first one replaces its value.
+    private void declareGlobal(Token name, Stmt declaration) {
+        Binding global = globals.get(name.getLexeme());
+        if(global == null) {
+            global = new Binding(name, declaration, true, 0);
+            global.defined = true;
+            globals.put(name.getLexeme(), global);
+        } else if(global.declaration == null) {
+            // it has been assigned before it is declared
+            global.declaration = declaration;
+        } else {
+            global.reassigned = true;
+        }
+    }
+
+    private void markAssigned(Expr.Assign expr) {
+        Binding binding = bindings.get(expr);
+        if(binding == null && scopes.stream().noneMatch(s -> s.containsKey(expr.name.getLexeme()))) {
+            // assigning a global which will be declared later
+            binding = globals.computeIfAbsent(expr.name.getLexeme(), n -> new Binding(expr.name, null, true, 0));
+            bindings.put(expr, binding);
+        }
+        if(binding == null) return;
+        binding.reassigned = true;
+        if(functionDepth != binding.functionDepth) {
+            binding.assignedInClosure = true;
+        }
     }
 
 
@@ -116,8 +185,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.getLexeme()) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read variable before it be define.");
+        Binding binding = scopes.isEmpty() ? null : scopes.peek().get(expr.name.getLexeme());
+        if(binding != null && !binding.defined) {
+            errors.error(expr.name, "Can't read variable before it be define.");
         }
         doResolve(expr, expr.name);
         return null;
@@ -127,6 +197,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
         doResolve(expr, expr.name);
+        markAssigned(expr);
         return null;
     }
 
@@ -164,7 +235,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass != ClassType.CLASS) {
-            Lox.error(expr.token, "Can't use 'this' outside of a class.");
+            errors.error(expr.token, "Can't use 'this' outside of a class.");
             return null;
         }
         doResolve(expr, expr.token);
@@ -184,7 +255,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
     @Override
     public void visitVarDeclaration(Stmt.VarDeclaration stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -214,7 +285,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
     @Override
     public void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
         
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -223,13 +294,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     @Override
     public void visitReturnStmt(Stmt.Return stmt) {
         if(currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            errors.error(stmt.keyword, "Can't return from top-level code.");
         }
         if(stmt.value != null) {
             if(currentFunction == FunctionType.INITIALLIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                errors.error(stmt.keyword, "Can't return a value from an initializer.");
             }
-            resolve(stmt.value); 
+            resolve(stmt.value);
+            // a return always ends its function, so the call it returns is in tail position
+            stmt.tailCall = stmt.value instanceof Expr.Call;
         }
            
     }
@@ -239,11 +312,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         beginScope();
-        scopes.peek().put("this", true);
+        Binding self = new Binding(stmt.name, null, false, functionDepth);
+        self.defined = true;
+        scopes.peek().put("this", self);
 
 
         List<Stmt.Function> methods = stmt.methods;
@@ -259,6 +334,32 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         currentClass = enclosingClass;
     }
 
+    /**
+     * What the resolver knows about one declared name.
+     */
+    static class Binding {
+        // the token which declares it, a class name token for 'this'
+        final Token name;
+        // the function, class or var statement declaring it, null for params and 'this'
+        Stmt declaration;
+        final boolean global;
+        // how many functions enclose its declaration
+        final int functionDepth;
+        boolean defined = false;
+        // assigned or redeclared somewhere after its declaration
+        boolean reassigned = false;
+        // assigned inside a function nested in the one declaring it, so any call may change it
+        boolean assignedInClosure = false;
+
+        Binding(Token name, Stmt declaration, boolean global, int functionDepth) {
+            this.name = name;
+            this.declaration = declaration;
+            this.global = global;
+            this.functionDepth = functionDepth;
+        }
+
+    }
+
     private enum FunctionType {
         NONE,
         FUNCTION,
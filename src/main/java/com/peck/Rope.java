@@ -0,0 +1,117 @@
+package com.peck;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string made by concatenating long strings. It only keeps its two halves, so building a string
+ * piece by piece in a loop costs time and memory in proportion to its length, not to its length squared.
+ * The text is put together the first time it's needed, to print it or compare it, and kept from then on.
+ *
+ * A string value is a java String or a Rope, a Rope is never shorter than LEAF_LENGTH.
+ * Appending a short string to a rope copies the short string at its right end instead of
+ * adding a node, so a rope built a character at a time has a node every LEAF_LENGTH characters.
+ *
+ * A rope never changes, only its text is filled in, so it can be shared by tasks.
+ */
+public final class Rope {
+
+    // up to this length a concatenation is just copied
+    static final int LEAF_LENGTH = 64;
+
+    // a String or a Rope each
+    private final Object left;
+    private final Object right;
+    private final int length;
+    private volatile String text;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    public static boolean isString(Object val) {
+        return val instanceof String || val instanceof Rope;
+    }
+
+    /**
+     * a + b, both are strings.
+     */
+    static Object concat(Object a, Object b) {
+        int length = length(a) + length(b);
+        if(length < 0) throw new OutOfMemoryError("A Lox string can't be that long.");
+        if(length <= LEAF_LENGTH) return (String) a + (String) b;
+
+        // the short end of a rope grows in place of adding a node for b
+        if(a instanceof Rope r && b instanceof String s && r.right instanceof String end
+            && end.length() + s.length() <= LEAF_LENGTH) {
+            return new Rope(r.left, end + s, length);
+        }
+        return new Rope(a, b, length);
+    }
+
+    static int length(Object string) {
+        return string instanceof Rope r ? r.length : ((String) string).length();
+    }
+
+    /**
+     * the character at index of a string, as a string of its own.
+     */
+    static String charAt(Object string, Object index) {
+        if(!Numbers.isInteger(index)) throw new Interpreter.NativeError("A string index must be an integer.");
+        long l = Numbers.toLong(index);
+        if(l < 0 || l >= length(string)) {
+            throw new Interpreter.NativeError("Index " + Numbers.toString(index) + " is out of a string of " + length(string) + ".");
+        }
+        // a rope is put together once, so going through it a character at a time stays linear
+        return String.valueOf(string.toString().charAt((int) l));
+    }
+
+    // a rope is equal to a String with the same text, like isEqual wants
+    static boolean equal(Object a, Object b) {
+        if(length(a) != length(b)) return false;
+        return a.toString().equals(b.toString());
+    }
+
+    @Override
+    public String toString() {
+        String text = this.text;
+        if(text == null) {
+            // two threads may both do it, they make the same text
+            text = flatten();
+            this.text = text;
+        }
+        return text;
+    }
+
+    // a rope built by appending is as deep as it is long, so this walks it without recursion
+    private String flatten() {
+        char[] chars = new char[length];
+        int pos = 0;
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while(!pending.isEmpty()) {
+            Object part = pending.pop();
+            if(part instanceof Rope r && r.text == null) {
+                pending.push(r.right);
+                pending.push(r.left);
+                continue;
+            }
+            String s = part.toString();
+            s.getChars(0, s.length(), chars, pos);
+            pos += s.length();
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return isString(o) && equal(this, o);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -9,6 +9,7 @@ import static com.peck.TokenType.*;
 
 public class Scanner {
     private final String source;
+    private final ErrorReporter errors;
     private final List<Token> tokens = new ArrayList<>();
 
     private int start  = 0;
@@ -37,8 +38,9 @@ public class Scanner {
         keywords.put("while",  WHILE);
     }
 
-    public Scanner(String source) {
+    public Scanner(String source, ErrorReporter errors) {
         this.source = source;
+        this.errors = errors;
     }
 
     public List<Token> scanTokens() {
@@ -111,7 +113,7 @@ public class Scanner {
                     consumeIdentifier();
                 } else {
                     // unexpected token
-                    Lox.error(line, "Unexpected character.");
+                    errors.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -162,7 +164,7 @@ public class Scanner {
         }
 
         if(isAtEnd() && !closing) {
-            Lox.error(line, "Unexpected comment.");
+            errors.error(line, "Unexpected comment.");
             return;
         }
 
@@ -176,7 +178,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unexpected string.");
+            errors.error(line, "Unexpected string.");
             return;
         }
 
@@ -191,13 +193,20 @@ public class Scanner {
 
     private void consumeNumber() {
         while(isDigit(peek())) consume();
+        boolean integral = true;
         if(peek() == '.' && isDigit(peekNext())) {
+            integral = false;
             do {
                 consume();
             } while (isDigit(peek()));
         }
-        Double literal = Double.parseDouble(source.substring(start, current));
-        addToken(NUMBER, literal);
+        String text = source.substring(start, current);
+        // an integer literal is kept as a Long if a double could hold it exactly, see Numbers
+        if(integral && current - start < 16) {
+            addToken(NUMBER, Numbers.box(Long.parseLong(text)));
+        } else {
+            addToken(NUMBER, Double.parseDouble(text));
+        }
     }
 
     private void consumeIdentifier() {
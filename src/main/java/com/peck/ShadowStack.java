@@ -0,0 +1,62 @@
+package com.peck;
+
+import java.util.Arrays;
+
+/**
+ * The Lox functions an interpreter is in, innermost last. It's only kept while a Profiler is attached,
+ * which reads it from its own thread.
+ *
+ * The owner pushes and pops without any synchronization, so a call costs two plain writes.
+ * The profiler may read a stack in the middle of a change: such a sample can have a frame too many or
+ * too few, which doesn't matter among thousands of them, and it never reads outside the array.
+ */
+public class ShadowStack {
+
+    // the bottom frame of every sample, the top level of the script or of a task
+    final String root;
+    // a fork with no frames is idle, the script's top level isn't
+    private final boolean topLevel;
+
+    private Stmt.Function[] frames = new Stmt.Function[64];
+    private int depth = 0;
+
+    ShadowStack(String root, boolean topLevel) {
+        this.root = root;
+        this.topLevel = topLevel;
+    }
+
+    void push(Stmt.Function func) {
+        if(depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+        frames[depth++] = func;
+    }
+
+    void pop() {
+        depth--;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    // after an error unwound several frames at once
+    void reset(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * appends the frames to sb as root;name:line;name:line, or returns false if there's nothing to sample.
+     */
+    boolean collapse(StringBuilder sb) {
+        Stmt.Function[] frames = this.frames;
+        int depth = Math.min(this.depth, frames.length);
+        if(depth <= 0 && !topLevel) return false;
+
+        sb.append(root);
+        for(int i = 0; i < depth; i++) {
+            Stmt.Function func = frames[i];
+            if(func == null) continue;
+            sb.append(';').append(func.name.getLexeme()).append(':').append(func.name.getLine());
+        }
+        return true;
+    }
+}
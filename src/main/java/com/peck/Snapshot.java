@@ -0,0 +1,657 @@
+package com.peck;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An image of the globals of an interpreter, like the image of a Smalltalk system.
+ *
+ * A prelude is run once and its globals are written with everything they reach: functions with their code
+ * and closures, classes, instances and lists. Loading the image into a new interpreter brings them back
+ * without scanning, parsing, resolving or running anything.
+ *
+ * The format is a compact stream of tagged values. Strings are written once and then referred to by number,
+ * and so is every object, so shared objects and cycles come back as they were. An object is written in two
+ * parts: first what it's made with (the parent of an environment, the code and the closure of a function),
+ * then, after everything else reached so far, what it holds (variables, methods, fields, items).
+ * That way the objects an object holds can always refer back to it.
+ *
+ * The globals environment and the natives belong to the interpreter, so they are only named in the image
+ * and bound to the ones of the interpreter loading it. Tasks and channels can't be saved.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x4c6f7849; // LoxI
+    private static final int VERSION = 2;
+
+    // the tags of values
+    private static final int NIL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int INTEGER = 3;
+    private static final int DOUBLE = 4;
+    private static final int STRING = 5;
+    private static final int REF = 6;
+    private static final int GLOBALS = 7;
+    private static final int NATIVE = 8;
+    private static final int ENVIRONMENT = 9;
+    private static final int FUNCTION = 10;
+    private static final int CLASS = 11;
+    private static final int INSTANCE = 12;
+    private static final int LIST = 13;
+    private static final int DOUBLE_ARRAY = 14;
+    private static final int MAP = 15;
+
+    // the tags of nodes, NONE is a missing one like an else branch
+    private static final int NONE = 0;
+    private static final int LITERAL = 1;
+    private static final int VARIABLE = 2;
+    private static final int ASSIGN = 3;
+    private static final int THIS = 4;
+    private static final int LOGICAL = 5;
+    private static final int BINARY = 6;
+    private static final int UNARY = 7;
+    private static final int GROUPING = 8;
+    private static final int CALL = 9;
+    private static final int GET = 10;
+    private static final int SET = 11;
+    private static final int VAR_DECLARATION = 12;
+    private static final int EXPRESSION = 13;
+    private static final int PRINT = 14;
+    private static final int BLOCK = 15;
+    private static final int IF = 16;
+    private static final int WHILE = 17;
+    private static final int FUNCTION_DECLARATION = 18;
+    private static final int RETURN = 19;
+    private static final int CLASS_DECLARATION = 20;
+    // a function or class declaration written before
+    private static final int NODE_REF = 21;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private Snapshot() {}
+
+    public static void save(Interpreter interpreter, Path image) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(image)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            new Writer(out, interpreter).writeGlobals();
+        }
+    }
+
+    public static void load(Interpreter interpreter, Path image) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(image)))) {
+            if(in.readInt() != MAGIC) throw new IOException(image + " isn't a Lox image.");
+            if(in.readByte() != VERSION) throw new IOException(image + " was written by another version of Lox.");
+            new Reader(in, interpreter).readGlobals();
+        } catch (EOFException | RuntimeException e) {
+            throw new IOException(image + " is damaged.", e);
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Interpreter interpreter;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Object, Integer> objects = new IdentityHashMap<>();
+        // made but not filled yet
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+        Writer(DataOutputStream out, Interpreter interpreter) {
+            this.out = out;
+            this.interpreter = interpreter;
+        }
+
+        void writeGlobals() throws IOException {
+            writeVariables(interpreter.globalEnv);
+            while(!pending.isEmpty()) {
+                writeContents(pending.poll());
+            }
+        }
+
+        private void writeVariables(Environment env) throws IOException {
+            Map<String, Object> variables = env.variables();
+            writeVarint(variables.size());
+            for(Map.Entry<String, Object> variable : variables.entrySet()) {
+                writeString(variable.getKey());
+                writeValue(variable.getValue());
+            }
+        }
+
+        private void writeContents(Object obj) throws IOException {
+            switch (obj) {
+                case Environment env -> writeVariables(env);
+                case Interpreter.Class cls -> {
+                    writeVarint(cls.methods.size());
+                    for(Map.Entry<String, Interpreter.Function> method : cls.methods.entrySet()) {
+                        writeString(method.getKey());
+                        writeValue(method.getValue());
+                    }
+                }
+                case Interpreter.Instance ins -> {
+                    writeVarint(ins.fields.size());
+                    for(Map.Entry<String, Object> field : ins.fields.entrySet()) {
+                        writeString(field.getKey());
+                        writeValue(field.getValue());
+                    }
+                }
+                case LoxList list -> {
+                    writeVarint(list.items.size());
+                    for(Object item : list.items) {
+                        writeValue(item);
+                    }
+                }
+                case LoxMap map -> {
+                    List<Object> entries = map.entries();
+                    writeVarint(entries.size() / 2);
+                    for(Object entry : entries) {
+                        writeValue(entry);
+                    }
+                }
+                default -> throw new IllegalStateException("Unexpected object " + obj);
+            }
+        }
+
+        private void writeValue(Object val) throws IOException {
+            Integer ref = val == null ? null : objects.get(val);
+            if(ref != null) {
+                out.writeByte(REF);
+                writeVarint(ref);
+                return;
+            }
+
+            switch (val) {
+                case null -> out.writeByte(NIL);
+                case Boolean b -> out.writeByte(b ? TRUE : FALSE);
+                case Long l -> {
+                    out.writeByte(INTEGER);
+                    // zigzag, so small negative numbers are short too
+                    writeVarlong((l << 1) ^ (l >> 63));
+                }
+                case Double d -> {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(d);
+                }
+                case String s -> {
+                    out.writeByte(STRING);
+                    writeString(s);
+                }
+                // it's loaded as the String it stands for
+                case Rope r -> {
+                    out.writeByte(STRING);
+                    writeString(r.toString());
+                }
+                case Interpreter.Native n -> {
+                    out.writeByte(NATIVE);
+                    writeString(n.name);
+                }
+                case Environment env when env == interpreter.globalEnv -> out.writeByte(GLOBALS);
+                case Environment env -> {
+                    out.writeByte(ENVIRONMENT);
+                    writeValue(env.parent());
+                    made(env, true);
+                }
+                case Interpreter.Function func -> {
+                    out.writeByte(FUNCTION);
+                    writeStmt(func.func);
+                    writeValue(func.closure);
+                    out.writeBoolean(func.isInitiallizer);
+                    made(func, false);
+                }
+                case Interpreter.Class cls -> {
+                    out.writeByte(CLASS);
+                    writeStmt(cls.stmt);
+                    made(cls, true);
+                }
+                case Interpreter.Instance ins -> {
+                    out.writeByte(INSTANCE);
+                    writeValue(ins.cls);
+                    made(ins, true);
+                }
+                case LoxList list -> {
+                    out.writeByte(LIST);
+                    made(list, true);
+                }
+                case LoxMap map -> {
+                    out.writeByte(MAP);
+                    made(map, true);
+                }
+                case DoubleArray array -> {
+                    // numbers only, so it's written whole right away
+                    out.writeByte(DOUBLE_ARRAY);
+                    writeVarint(array.values.length);
+                    for(double value : array.values) {
+                        out.writeDouble(value);
+                    }
+                    made(array, false);
+                }
+                default -> throw new IOException("Can't save " + val + " in an image.");
+            }
+        }
+
+        // the number of an object is the order it's made in, the Reader counts the same way
+        private void made(Object obj, boolean hasContents) {
+            objects.put(obj, objects.size());
+            if(hasContents) pending.add(obj);
+        }
+
+        private void writeExpr(Expr expr) throws IOException {
+            switch (expr) {
+                case null -> out.writeByte(NONE);
+                case Expr.Literal e -> {
+                    out.writeByte(LITERAL);
+                    writeValue(e.value);
+                }
+                case Expr.Variable e -> {
+                    out.writeByte(VARIABLE);
+                    writeToken(e.name);
+                    writeVarint(e.depth + 1);
+                }
+                case Expr.Assign e -> {
+                    out.writeByte(ASSIGN);
+                    writeToken(e.name);
+                    writeVarint(e.depth + 1);
+                    writeExpr(e.value);
+                }
+                case Expr.This e -> {
+                    out.writeByte(THIS);
+                    writeToken(e.token);
+                    writeVarint(e.depth + 1);
+                }
+                case Expr.Logical e -> {
+                    out.writeByte(LOGICAL);
+                    writeExpr(e.left);
+                    writeToken(e.operator);
+                    writeExpr(e.right);
+                }
+                case Expr.Binary e -> {
+                    out.writeByte(BINARY);
+                    writeExpr(e.left);
+                    writeToken(e.operator);
+                    writeExpr(e.right);
+                }
+                case Expr.Unary e -> {
+                    out.writeByte(UNARY);
+                    writeToken(e.operator);
+                    writeExpr(e.right);
+                }
+                case Expr.Grouping e -> {
+                    out.writeByte(GROUPING);
+                    writeExpr(e.expression);
+                }
+                case Expr.Call e -> {
+                    out.writeByte(CALL);
+                    writeExpr(e.callee);
+                    writeToken(e.paren);
+                    writeVarint(e.args.size());
+                    for(Expr arg : e.args) {
+                        writeExpr(arg);
+                    }
+                }
+                case Expr.Get e -> {
+                    out.writeByte(GET);
+                    writeExpr(e.obj);
+                    writeToken(e.name);
+                }
+                case Expr.Set e -> {
+                    out.writeByte(SET);
+                    writeExpr(e.obj);
+                    writeToken(e.name);
+                    writeExpr(e.value);
+                }
+                default -> throw new IllegalStateException("Unexpected node " + expr);
+            }
+        }
+
+        private void writeStmt(Stmt stmt) throws IOException {
+            // declarations are shared by the functions and classes made from them
+            Integer ref = stmt == null ? null : objects.get(stmt);
+            if(ref != null) {
+                out.writeByte(NODE_REF);
+                writeVarint(ref);
+                return;
+            }
+
+            switch (stmt) {
+                case null -> out.writeByte(NONE);
+                case Stmt.VarDeclaration s -> {
+                    out.writeByte(VAR_DECLARATION);
+                    writeToken(s.name);
+                    writeExpr(s.initializer);
+                }
+                case Stmt.Expression s -> {
+                    out.writeByte(EXPRESSION);
+                    writeExpr(s.expr);
+                }
+                case Stmt.Print s -> {
+                    out.writeByte(PRINT);
+                    writeExpr(s.expr);
+                }
+                case Stmt.Block s -> {
+                    out.writeByte(BLOCK);
+                    writeVarint(s.stmts.size());
+                    for(Stmt inner : s.stmts) {
+                        writeStmt(inner);
+                    }
+                }
+                case Stmt.If s -> {
+                    out.writeByte(IF);
+                    writeExpr(s.conditionExpr);
+                    writeStmt(s.thenStmt);
+                    writeStmt(s.elseStmt);
+                }
+                case Stmt.While s -> {
+                    out.writeByte(WHILE);
+                    writeExpr(s.conditionExpr);
+                    writeStmt(s.body);
+                }
+                case Stmt.Function s -> {
+                    out.writeByte(FUNCTION_DECLARATION);
+                    writeToken(s.name);
+                    writeVarint(s.params.size());
+                    for(Token param : s.params) {
+                        writeToken(param);
+                    }
+                    writeStmt(s.body);
+                    made(s, false);
+                }
+                case Stmt.Return s -> {
+                    out.writeByte(RETURN);
+                    writeToken(s.keyword);
+                    writeExpr(s.value);
+                    out.writeBoolean(s.tailCall);
+                }
+                case Stmt.Class s -> {
+                    out.writeByte(CLASS_DECLARATION);
+                    writeToken(s.name);
+                    writeVarint(s.methods.size());
+                    for(Stmt.Function method : s.methods) {
+                        writeStmt(method);
+                    }
+                    made(s, false);
+                }
+                default -> throw new IllegalStateException("Unexpected node " + stmt);
+            }
+            if(stmt != null) writeVarint(stmt.line);
+        }
+
+        private void writeToken(Token token) throws IOException {
+            out.writeByte(token.getType().ordinal());
+            writeString(token.getLexeme());
+            writeValue(token.getLiteral());
+            writeVarint(token.getLine());
+        }
+
+        // 0 and the string the first time, its number + 1 after
+        private void writeString(String s) throws IOException {
+            Integer ref = strings.get(s);
+            if(ref != null) {
+                writeVarint(ref + 1);
+                return;
+            }
+            strings.put(s, strings.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(0);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarint(int val) throws IOException {
+            writeVarlong(val & 0xffffffffL);
+        }
+
+        private void writeVarlong(long val) throws IOException {
+            while((val & ~0x7fL) != 0) {
+                out.writeByte((int) (val & 0x7f) | 0x80);
+                val >>>= 7;
+            }
+            out.writeByte((int) val);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final Interpreter interpreter;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Object> objects = new ArrayList<>();
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+        Reader(DataInputStream in, Interpreter interpreter) {
+            this.in = in;
+            this.interpreter = interpreter;
+        }
+
+        void readGlobals() throws IOException {
+            readVariables(interpreter.globalEnv);
+            while(!pending.isEmpty()) {
+                readContents(pending.poll());
+            }
+        }
+
+        private void readVariables(Environment env) throws IOException {
+            int count = readVarint();
+            for(int i = 0; i < count; i++) {
+                env.define(readString(), readValue());
+            }
+        }
+
+        private void readContents(Object obj) throws IOException {
+            switch (obj) {
+                case Environment env -> readVariables(env);
+                case Interpreter.Class cls -> {
+                    int count = readVarint();
+                    for(int i = 0; i < count; i++) {
+                        cls.methods.put(readString(), (Interpreter.Function) readValue());
+                    }
+                }
+                case Interpreter.Instance ins -> {
+                    int count = readVarint();
+                    for(int i = 0; i < count; i++) {
+                        ins.fields.put(readString(), readValue());
+                    }
+                }
+                case LoxList list -> {
+                    int count = readVarint();
+                    for(int i = 0; i < count; i++) {
+                        list.items.add(readValue());
+                    }
+                }
+                case LoxMap map -> {
+                    int count = readVarint();
+                    for(int i = 0; i < count; i++) {
+                        map.set(readValue(), readValue());
+                    }
+                }
+                default -> throw new IllegalStateException("Unexpected object " + obj);
+            }
+        }
+
+        private Object readValue() throws IOException {
+            int tag = in.readByte();
+            switch (tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case INTEGER: {
+                    long zigzag = readVarlong();
+                    return Numbers.box((zigzag >>> 1) ^ -(zigzag & 1));
+                }
+                case DOUBLE: return in.readDouble();
+                case STRING: return readString();
+                case REF: return objects.get(readVarint());
+                case GLOBALS: return interpreter.globalEnv;
+                case NATIVE: return interpreter.globalEnv.get(new Token(TokenType.IDENTIFIER, readString(), null, 0));
+                case ENVIRONMENT: {
+                    Environment parent = (Environment) readValue();
+                    return made(new Environment(parent), true);
+                }
+                case FUNCTION: {
+                    Stmt.Function func = (Stmt.Function) readStmt();
+                    Environment closure = (Environment) readValue();
+                    return made(new Interpreter.Function(func, closure, in.readBoolean()), false);
+                }
+                case CLASS: {
+                    Stmt.Class stmt = (Stmt.Class) readStmt();
+                    return made(new Interpreter.Class(stmt, new HashMap<>()), true);
+                }
+                case INSTANCE: return made(new Interpreter.Instance((Interpreter.Class) readValue()), true);
+                case LIST: return made(new LoxList(), true);
+                case MAP: return made(new LoxMap(), true);
+                case DOUBLE_ARRAY: {
+                    double[] values = new double[readVarint()];
+                    for(int i = 0; i < values.length; i++) {
+                        values[i] = in.readDouble();
+                    }
+                    return made(new DoubleArray(values), false);
+                }
+                default: throw new IOException("Unknown value " + tag + ".");
+            }
+        }
+
+        private Object made(Object obj, boolean hasContents) {
+            objects.add(obj);
+            if(hasContents) pending.add(obj);
+            return obj;
+        }
+
+        private Expr readExpr() throws IOException {
+            int tag = in.readByte();
+            switch (tag) {
+                case NONE: return null;
+                case LITERAL: return new Expr.Literal(readValue());
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(readToken());
+                    expr.depth = readVarint() - 1;
+                    return expr;
+                }
+                case ASSIGN: {
+                    Token name = readToken();
+                    int depth = readVarint() - 1;
+                    Expr.Assign expr = new Expr.Assign(name, readExpr());
+                    expr.depth = depth;
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(readToken());
+                    expr.depth = readVarint() - 1;
+                    return expr;
+                }
+                case LOGICAL: return new Expr.Logical(readExpr(), readToken(), readExpr());
+                case BINARY: return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case UNARY: return new Expr.Unary(readToken(), readExpr());
+                case GROUPING: return new Expr.Grouping(readExpr());
+                case CALL: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int count = readVarint();
+                    List<Expr> args = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) {
+                        args.add(readExpr());
+                    }
+                    return new Expr.Call(callee, paren, args);
+                }
+                case GET: return new Expr.Get(readExpr(), readToken());
+                case SET: return new Expr.Set(readExpr(), readToken(), readExpr());
+                default: throw new IOException("Unknown expression " + tag + ".");
+            }
+        }
+
+        private Stmt readStmt() throws IOException {
+            int tag = in.readByte();
+            if(tag == NONE) return null;
+            if(tag == NODE_REF) return (Stmt) objects.get(readVarint());
+
+            Stmt stmt = readStmt(tag);
+            stmt.line = readVarint();
+            return stmt;
+        }
+
+        private Stmt readStmt(int tag) throws IOException {
+            switch (tag) {
+                case VAR_DECLARATION: return new Stmt.VarDeclaration(readToken(), readExpr());
+                case EXPRESSION: return new Stmt.Expression(readExpr());
+                case PRINT: return new Stmt.Print(readExpr());
+                case BLOCK: return new Stmt.Block(readStmts(readVarint()));
+                case IF: return new Stmt.If(readExpr(), readStmt(), readStmt());
+                case WHILE: return new Stmt.While(readExpr(), readStmt());
+                case FUNCTION_DECLARATION: {
+                    Token name = readToken();
+                    int count = readVarint();
+                    List<Token> params = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) {
+                        params.add(readToken());
+                    }
+                    Stmt.Function stmt = new Stmt.Function(name, params, (Stmt.Block) readStmt());
+                    made(stmt, false);
+                    return stmt;
+                }
+                case RETURN: {
+                    Stmt.Return stmt = new Stmt.Return(readToken(), readExpr());
+                    stmt.tailCall = in.readBoolean();
+                    return stmt;
+                }
+                case CLASS_DECLARATION: {
+                    Token name = readToken();
+                    int count = readVarint();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) {
+                        methods.add((Stmt.Function) readStmt());
+                    }
+                    Stmt.Class stmt = new Stmt.Class(name, methods);
+                    made(stmt, false);
+                    return stmt;
+                }
+                default: throw new IOException("Unknown statement " + tag + ".");
+            }
+        }
+
+        private List<Stmt> readStmts(int count) throws IOException {
+            List<Stmt> stmts = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                stmts.add(readStmt());
+            }
+            return stmts;
+        }
+
+        private Token readToken() throws IOException {
+            TokenType type = TOKEN_TYPES[in.readByte()];
+            String lexeme = readString();
+            Object literal = readValue();
+            return new Token(type, lexeme, literal, readVarint());
+        }
+
+        private String readString() throws IOException {
+            int ref = readVarint();
+            if(ref > 0) return strings.get(ref - 1);
+            String s = new String(in.readNBytes(readVarint()), StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+
+        private int readVarint() throws IOException {
+            return (int) readVarlong();
+        }
+
+        private long readVarlong() throws IOException {
+            long val = 0;
+            for(int shift = 0; ; shift += 7) {
+                int b = in.readByte();
+                val |= (long) (b & 0x7f) << shift;
+                if((b & 0x80) == 0) return val;
+            }
+        }
+    }
+}
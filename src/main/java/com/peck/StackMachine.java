@@ -0,0 +1,414 @@
+package com.peck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs Lox code with its frames on a heap-allocated stack instead of the java stack.
+ *
+ * The tree-walking Interpreter recurses through several java frames for every Lox call, so the
+ * recursion depth is bounded by the thread stack. Here every pending node is an entry of an explicit
+ * stack: the node, the step it has reached and one extra slot, and the values computed so far live on a
+ * second stack. A node is revisited after each of its children is done, so a Lox call is just a few more
+ * entries, and the depth is only bounded by the memory budget.
+ *
+ * The budget counts the stack entries and the environment of every frame on the stack: the Environment
+ * with its HashMap and a map entry per parameter. It's an estimate, locals and blocks inside a call
+ * are not counted, so the heap used by a deep recursion is somewhat more than the budget.
+ *
+ * The leaf work (reading variables, arithmetic, properties, declarations) is shared with the Interpreter.
+ *
+ * Besides Expr and Stmt nodes the stack holds two kinds of markers:
+ * - a Function is a call frame, its step is the height of the value stack when it was entered,
+ *   and its extra slot is the caller's environment.
+ * - an Instance waits for its initializer to finish, then replaces the result of init by itself.
+ */
+public class StackMachine {
+
+    // a stack entry costs three array slots, a pending value one more
+    static final int ENTRY_BYTES = 16;
+    // the Environment of a frame, its HashMap and the table of the map
+    static final int FRAME_BYTES = 160;
+    // a HashMap node
+    static final int VARIABLE_BYTES = 32;
+
+    // marks a call which is returned right away, so it can replace the frame of its caller
+    private static final Object TAIL = new Object();
+
+    private final Interpreter interpreter;
+    private final long budgetBytes;
+    // what the environments of the frames on the stack take
+    private long frameBytes = 0;
+
+    private Object[] nodes = new Object[256];
+    private int[] steps = new int[256];
+    private Object[] extras = new Object[256];
+    private int top = 0;
+
+    private Object[] values = new Object[256];
+    private int valueTop = 0;
+
+    public StackMachine(Interpreter interpreter, long budgetBytes) {
+        this.interpreter = interpreter;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public void run(List<Stmt> stmts) {
+        int base = top;
+        for(int i = stmts.size() - 1; i >= 0; i--) {
+            push(stmts.get(i), 0, null);
+        }
+        execute(base);
+    }
+
+    /**
+     * calls a Lox function from java code (a native function or a class constructor).
+     */
+    public Object invoke(Interpreter.Function func, List<Object> args) {
+        int base = top;
+        enter(func, args, null);
+        execute(base);
+        return popValue();
+    }
+
+    // runs until the stack is back to base
+    private void execute(int base) {
+        int valueBase = valueTop;
+        long frameBase = frameBytes;
+        Environment env = interpreter.env;
+        int shadowBase = interpreter.shadow != null ? interpreter.shadow.depth() : 0;
+        try {
+            while(top > base) {
+                step();
+            }
+        } catch (RuntimeException e) {
+            top = base;
+            valueTop = valueBase;
+            frameBytes = frameBase;
+            // the frames unwound keep no node, environment or value alive
+            Arrays.fill(nodes, base, nodes.length, null);
+            Arrays.fill(extras, base, extras.length, null);
+            Arrays.fill(values, valueBase, values.length, null);
+            interpreter.env = env;
+            if(interpreter.shadow != null) interpreter.shadow.reset(shadowBase);
+            throw e;
+        }
+    }
+
+    private void step() {
+        int i = top - 1;
+        Object node = nodes[i];
+        int step = steps[i];
+        // a function body starts at step 1, it's part of the call
+        if(step == 0 && interpreter.metrics != null && (node instanceof Expr || node instanceof Stmt)) {
+            interpreter.metrics.evaluated(node);
+        }
+        if(interpreter.lines != null) {
+            interpreter.lines.switchTo(currentLine(), step == 0 && node instanceof Stmt);
+        }
+
+        switch (node) {
+            case Expr.Literal expr -> replaceByValue(expr.value);
+            case Expr.Variable expr -> replaceByValue(interpreter.visitVariableExpr(expr));
+            case Expr.This expr -> replaceByValue(interpreter.visitThisExpr(expr));
+            case Expr.Grouping expr -> {
+                if(step == 0) next(i, expr.expression);
+                else pop();
+            }
+            case Expr.Unary expr -> {
+                if(step == 0) next(i, expr.right);
+                else replaceByValue(interpreter.unary(expr, popValue()));
+            }
+            case Expr.Binary expr -> {
+                if(step == 0) {
+                    next(i, expr.left);
+                } else if(step == 1) {
+                    next(i, expr.right);
+                } else {
+                    Object right = popValue();
+                    replaceByValue(interpreter.binary(expr, popValue(), right));
+                }
+            }
+            case Expr.Logical expr -> {
+                if(step == 0) {
+                    next(i, expr.left);
+                } else if(step == 1) {
+                    boolean truthy = interpreter.isTruthy(values[valueTop - 1]);
+                    if(expr.operator.getType() == TokenType.OR ? truthy : !truthy) {
+                        // short-circuit, the left value is the result
+                        pop();
+                    } else {
+                        popValue();
+                        next(i, expr.right);
+                    }
+                } else {
+                    pop();
+                }
+            }
+            case Expr.Assign expr -> {
+                if(step == 0) {
+                    next(i, expr.value);
+                } else {
+                    interpreter.assignVariable(expr.depth, expr.name, values[valueTop - 1]);
+                    pop();
+                }
+            }
+            case Expr.Get expr -> {
+                if(step == 0) next(i, expr.obj);
+                else replaceByValue(interpreter.getProperty(expr, popValue()));
+            }
+            case Expr.Set expr -> {
+                if(step == 0) {
+                    next(i, expr.obj);
+                } else if(step == 1) {
+                    interpreter.checkInstance(expr, values[valueTop - 1]);
+                    next(i, expr.value);
+                } else {
+                    Object val = popValue();
+                    interpreter.checkInstance(expr, popValue()).set(expr.name, val);
+                    replaceByValue(val);
+                }
+            }
+            case Expr.Call expr -> {
+                if(step == 0) {
+                    next(i, expr.callee);
+                } else if(step <= expr.args.size()) {
+                    next(i, expr.args.get(step - 1));
+                } else {
+                    call(expr, extras[i] == TAIL);
+                }
+            }
+
+            case Stmt.Expression stmt -> {
+                if(step == 0) {
+                    next(i, stmt.expr);
+                } else {
+                    popValue();
+                    pop();
+                }
+            }
+            case Stmt.Print stmt -> {
+                if(step == 0) {
+                    next(i, stmt.expr);
+                } else {
+                    interpreter.print(popValue());
+                    pop();
+                }
+            }
+            case Stmt.VarDeclaration stmt -> {
+                if(step == 0 && stmt.initializer != null) {
+                    next(i, stmt.initializer);
+                } else {
+                    Object val = stmt.initializer == null ? null : popValue();
+                    interpreter.env.define(stmt.name.getLexeme(), val);
+                    pop();
+                }
+            }
+            case Stmt.Block stmt -> {
+                if(step == 0) {
+                    // a function body starts at step 1, it runs in the environment of its frame
+                    extras[i] = interpreter.env;
+                    interpreter.env = interpreter.newEnvironment(interpreter.env);
+                    steps[i] = 1;
+                } else if(step <= stmt.stmts.size()) {
+                    next(i, stmt.stmts.get(step - 1));
+                } else {
+                    if(extras[i] != null) interpreter.env = (Environment) extras[i];
+                    pop();
+                }
+            }
+            case Stmt.If stmt -> {
+                if(step == 0) {
+                    next(i, stmt.conditionExpr);
+                } else {
+                    boolean truthy = interpreter.isTruthy(popValue());
+                    pop();
+                    if(truthy) push(stmt.thenStmt, 0, null);
+                    else if(stmt.elseStmt != null) push(stmt.elseStmt, 0, null);
+                }
+            }
+            case Stmt.While stmt -> {
+                if(step != 1) {
+                    // step 2 is back from the body
+                    steps[i] = 1;
+                    push(stmt.conditionExpr, 0, null);
+                } else if(interpreter.isTruthy(popValue())) {
+                    steps[i] = 2;
+                    push(stmt.body, 0, null);
+                } else {
+                    pop();
+                }
+            }
+            case Stmt.Function stmt -> {
+                interpreter.visitFunctionStmt(stmt);
+                pop();
+            }
+            case Stmt.Class stmt -> {
+                interpreter.visitClassStmt(stmt);
+                pop();
+            }
+            case Stmt.Return stmt -> {
+                if(step == 0 && stmt.value != null) {
+                    steps[i] = 1;
+                    push(stmt.value, 0, stmt.tailCall ? TAIL : null);
+                } else {
+                    ret(stmt.keyword, stmt.value == null ? null : popValue());
+                }
+            }
+
+            case Interpreter.Function func -> {
+                // the body finished without a return
+                frameBytes -= frameBytes(func);
+                valueTop = steps[i];
+                interpreter.env = (Environment) extras[i];
+                pop();
+                if(interpreter.shadow != null) interpreter.shadow.pop();
+                pushValue(null);
+            }
+            case Interpreter.Instance ins -> {
+                popValue();
+                replaceByValue(ins);
+            }
+            default -> throw new IllegalStateException("Unexpected node " + node);
+        }
+    }
+
+    // the line of the innermost statement, where the time of a step goes. as in the tree walker,
+    // a function body between its statements is part of the call
+    private int currentLine() {
+        for(int j = top - 1; j >= 0; j--) {
+            if(nodes[j] instanceof Stmt stmt && !(j > 0 && nodes[j - 1] instanceof Interpreter.Function)) {
+                return stmt.line;
+            }
+        }
+        return -1;
+    }
+
+    private void call(Expr.Call expr, boolean tail) {
+        int argc = expr.args.size();
+        List<Object> args = new ArrayList<>(argc);
+        for(int a = valueTop - argc; a < valueTop; a++) {
+            args.add(values[a]);
+            values[a] = null;
+        }
+        valueTop -= argc;
+        Object callee = popValue();
+
+        Interpreter.Callable callable = interpreter.checkCallable(expr, callee, args);
+        pop();
+
+        if(callable instanceof Interpreter.Function func) {
+            if(tail) {
+                // drop the frame of the caller, the callee returns to where the caller would
+                int frame = unwindToFrame();
+                Environment caller = (Environment) extras[frame];
+                int valueBase = steps[frame];
+                frameBytes -= frameBytes((Interpreter.Function) nodes[frame]);
+                pop();
+                if(interpreter.shadow != null) interpreter.shadow.pop();
+                interpreter.env = caller;
+                valueTop = valueBase;
+            }
+            enter(func, args, expr.paren);
+        } else if(callable instanceof Interpreter.Class cls) {
+            Interpreter.Instance ins = cls.instantiate(interpreter);
+            Interpreter.Function init = cls.findMethod("init");
+            if(init == null) {
+                pushValue(ins);
+            } else {
+                push(ins, 0, null);
+                enter(init.bind(interpreter, ins), args, expr.paren);
+            }
+        } else {
+            pushValue(interpreter.call(callable, expr.paren, args));
+        }
+    }
+
+    private void enter(Interpreter.Function func, List<Object> args, Token paren) {
+        long cost = frameBytes(func);
+        if((top + 2L) * ENTRY_BYTES + frameBytes + cost > budgetBytes || (long) valueTop * ENTRY_BYTES > budgetBytes) {
+            throw new InterpretError(paren != null ? paren : func.func.name, "Stack overflow.");
+        }
+
+        frameBytes += cost;
+        push(func, valueTop, interpreter.env);
+        if(interpreter.shadow != null) interpreter.shadow.push(func.func);
+        if(interpreter.metrics != null) interpreter.metrics.calls.increment();
+        Environment env = interpreter.newEnvironment(func.closure);
+        for(int p = 0; p < func.func.params.size(); p++) {
+            env.define(func.func.params.get(p).getLexeme(), args.get(p));
+        }
+        interpreter.env = env;
+        push(func.func.body, 1, null);
+    }
+
+    private void ret(Token keyword, Object value) {
+        int frame = unwindToFrame();
+        Interpreter.Function func = (Interpreter.Function) nodes[frame];
+        frameBytes -= frameBytes(func);
+        valueTop = steps[frame];
+        interpreter.env = (Environment) extras[frame];
+        pop();
+        if(interpreter.shadow != null) interpreter.shadow.pop();
+
+        if(func.isInitiallizer) {
+            value = func.closure.getAt(0, keyword, "this");
+        }
+        pushValue(value);
+    }
+
+    private static long frameBytes(Interpreter.Function func) {
+        return FRAME_BYTES + (long) func.func.params.size() * VARIABLE_BYTES;
+    }
+
+    // pops everything above the innermost frame and returns its index
+    private int unwindToFrame() {
+        while(!(nodes[top - 1] instanceof Interpreter.Function)) {
+            pop();
+        }
+        return top - 1;
+    }
+
+    private void next(int i, Object child) {
+        steps[i]++;
+        push(child, 0, null);
+    }
+
+    private void push(Object node, int step, Object extra) {
+        if(top == nodes.length) {
+            int size = nodes.length * 2;
+            nodes = Arrays.copyOf(nodes, size);
+            steps = Arrays.copyOf(steps, size);
+            extras = Arrays.copyOf(extras, size);
+        }
+        nodes[top] = node;
+        steps[top] = step;
+        extras[top] = extra;
+        top++;
+    }
+
+    private void pop() {
+        top--;
+        nodes[top] = null;
+        extras[top] = null;
+    }
+
+    private void replaceByValue(Object value) {
+        pop();
+        pushValue(value);
+    }
+
+    private void pushValue(Object value) {
+        if(valueTop == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[valueTop++] = value;
+    }
+
+    private Object popValue() {
+        Object value = values[--valueTop];
+        values[valueTop] = null;
+        return value;
+    }
+}
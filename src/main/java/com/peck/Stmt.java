@@ -4,6 +4,9 @@ import java.util.List;
 
 public abstract class Stmt {
 
+    // the source line the statement starts on, set by the parser
+    int line;
+
     abstract void accept(Visitor visitor);
 
     public static class VarDeclaration extends Stmt {
@@ -112,6 +115,8 @@ public abstract class Stmt {
     public static class Return extends Stmt {
         final Token keyword;
         final Expr value;
+        // it returns a call, set by the Resolver
+        boolean tailCall = false;
         
         public Return(Token keyword, Expr value) {
             this.keyword = keyword;
@@ -0,0 +1,54 @@
+package com.peck;
+
+import java.util.List;
+
+/**
+ * A Lox function running on its own virtual thread, started by spawn and waited for by join.
+ *
+ * The function is called by an interpreter forked for the task, so the task has its own frames
+ * while the globals are shared with the code which spawned it.
+ */
+public class Task {
+
+    private final Thread thread;
+    // written by the task's thread, join makes them visible
+    private Object result;
+    private Throwable error;
+
+    Task(Interpreter worker, Interpreter.Callable fn) {
+        this.thread = Thread.ofVirtual().unstarted(() -> {
+            try {
+                result = fn.call(worker, List.of());
+            } catch (StackOverflowError e) {
+                error = new Interpreter.NativeError("Stack overflow in a task.");
+            } catch (RuntimeException | Error e) {
+                error = e;
+            } finally {
+                worker.finish();
+            }
+        });
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // waits for the task, and fails the same way if the task failed
+    Object join() {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Interpreter.NativeError("Interrupted while joining a task.");
+        }
+
+        if(error instanceof RuntimeException e) throw e;
+        if(error instanceof Error e) throw e;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
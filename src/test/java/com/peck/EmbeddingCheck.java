@@ -0,0 +1,63 @@
+package com.peck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks the embedding API the way an application uses it: many evals on one context.
+ * mvn test compiles it, run it with
+ *   java -cp target/classes:target/test-classes com.peck.EmbeddingCheck
+ * it exits with 1 if a check failed.
+ */
+public class EmbeddingCheck {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        badScriptThenGoodOne();
+        runtimeErrorThenGoodRun();
+        if(failures > 0) {
+            System.err.println(failures + " embedding checks failed.");
+            System.exit(1);
+        }
+        System.out.println("Embedding checks passed.");
+    }
+
+    // a syntax error in one eval doesn't skip the evals after it
+    private static void badScriptThenGoodOne() {
+        StringWriter out = new StringWriter();
+        LoxContext context = new LoxEngine().newContext(out, new ErrorReporter(discard()));
+
+        check("a script with a syntax error fails", !context.eval("print 1 +;"));
+        check("the next script runs", context.eval("print 42;"));
+        check("the next script prints", out.toString().equals("42\n"));
+        check("the context still reports the error", context.errors().exitStatus() == 65);
+    }
+
+    // a runtime error in one run doesn't fail the runs after it
+    private static void runtimeErrorThenGoodRun() {
+        StringWriter out = new StringWriter();
+        LoxEngine engine = new LoxEngine(true, true);
+        LoxContext context = engine.newContext(out, new ErrorReporter(discard()));
+
+        check("a script with a runtime error fails", !context.eval("print nil + 1;"));
+        check("the next script succeeds", context.eval("print 43;"));
+        CompiledScript script = engine.compile("var n = 0; while (n < 3) n = n + 1; print n;", context.errors());
+        check("a script compiles after a failed one", script != null);
+        check("a compiled script runs", script != null && context.run(script) && context.run(script));
+        check("everything printed", out.toString().equals("43\n3\n3\n"));
+    }
+
+    private static PrintStream discard() {
+        return new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    private static void check(String what, boolean ok) {
+        if(!ok) {
+            System.err.println("FAILED: " + what);
+            failures++;
+        }
+    }
+}